@@ -0,0 +1,269 @@
+package ik;
+
+import java.util.*;
+
+import static ik.GraphConstants.*;
+
+/**
+ * The graphs the benchmarks run on.  Each of the known minor minimal IK
+ * graphs in GraphConstants comes with graphs made from it:
+ *
+ *   expansion   The graph with one vertex split into two adjacent vertices
+ *               that share its neighbors, so it contains the graph as a
+ *               minor but only through a contraction.
+ *   near miss   The expansion less one edge at the split, which is close
+ *               to the graph but usually no longer has it as a minor.
+ *   deletion    The graph less one edge, a proper minor of the graph.
+ *   padded      The graph with an extra vertex joined to three of its
+ *               vertices, so it contains the graph as a subgraph.
+ *   triangulation  A planar graph with more vertices and edges than the
+ *               graph, which cannot have it as a minor since the graphs
+ *               here are all nonplanar.  The MinorPrefilter rules it out
+ *               before any search.
+ *   saturated   A graph larger than the near miss which still does not
+ *               have the graph as a minor, but which every MinorFilter
+ *               lets through, so the minor search runs and fails.
+ */
+public class BenchmarkGraphs {
+  private static final Map<String, Graph> PATTERNS =
+                         new LinkedHashMap<String, Graph>();
+
+  static {
+    Graph[] patterns = {K7, H8, H9, F9, K3311, A9, B9};
+
+    for (int i = 0; i < patterns.length; i++) {
+      PATTERNS.put(patterns[i].getName(), patterns[i]);
+    }
+  }
+
+  /**
+   * The known graph with the given name.
+   *
+   * @param name The name of a graph in GraphConstants, such as "H9".
+   * @return The Graph.
+   * @throws IllegalArgumentException if there is no such graph.
+   */
+  public static Graph pattern(String name) {
+    Graph pattern = PATTERNS.get(name);
+
+    if (pattern == null) {
+      throw new IllegalArgumentException("No graph named " + name);
+    }
+
+    return pattern;
+  }
+
+  /**
+   * The known graph a classification test is built around, found from the
+   * test's name, or H9 for the tests that are not built around a graph.
+   *
+   * @param test The classification test.
+   * @return The Graph.
+   */
+  public static Graph patternFor(IKClassification test) {
+    for (Map.Entry<String, Graph> entry : PATTERNS.entrySet()) {
+      if (test.getName().equals("ContainsMinor" + entry.getKey() +
+                                "Classification") ||
+          test.getName().equals("MinorOf" + entry.getKey() +
+                                "Classification")) {
+        return entry.getValue();
+      }
+    }
+
+    return H9;
+  }
+
+  /**
+   * The classification test with the given name.
+   *
+   * @param name The name of a test in KnotFinder.IK_CLASSIFICATIONS.
+   * @return The IKClassification.
+   * @throws IllegalArgumentException if there is no such test.
+   */
+  public static IKClassification test(String name) {
+    for (int i = 0; i < KnotFinder.IK_CLASSIFICATIONS.length; i++) {
+      if (KnotFinder.IK_CLASSIFICATIONS[i].getName().equals(name)) {
+        return KnotFinder.IK_CLASSIFICATIONS[i];
+      }
+    }
+
+    throw new IllegalArgumentException("No classification named " + name);
+  }
+
+  /**
+   * Splits vertex 0 of the graph into two adjacent vertices, giving the
+   * new vertex every other neighbor.
+   *
+   * @param graph The graph to expand.
+   * @return The expanded Graph.
+   */
+  public static Graph expansion(Graph graph) {
+    int   order    = graph.getOrder();
+    Graph expanded = copy(graph, graph.getName() + "-expansion", order + 1);
+    int   moved    = 0;
+
+    for (int to = graph.nextNeighbor(0, 0); to >= 0;
+         to = graph.nextNeighbor(0, to + 1)) {
+      if (moved++ % 2 == 1) {
+        expanded = withoutEdge(expanded, 0, to);
+        expanded.addEdge(order, to);
+      }
+    }
+
+    expanded.addEdge(0, order);
+
+    return expanded;
+  }
+
+  /**
+   * The expansion of the graph less the edge joining the split vertices
+   * to one of the neighbors of the new vertex.
+   *
+   * @param graph The graph to expand.
+   * @return The near miss Graph.
+   */
+  public static Graph nearMiss(Graph graph) {
+    Graph expanded = expansion(graph);
+    int   order    = graph.getOrder();
+    int   to       = expanded.nextNeighbor(order, 1);
+
+    return rename(withoutEdge(expanded, order, to),
+                  graph.getName() + "-near-miss");
+  }
+
+  /**
+   * The graph less its first edge.
+   *
+   * @param graph The graph.
+   * @return The smaller Graph.
+   */
+  public static Graph deletion(Graph graph) {
+    int from = 0;
+    int to   = graph.nextNeighbor(from, 0);
+
+    return rename(withoutEdge(graph, from, to),
+                  graph.getName() + "-deletion");
+  }
+
+  /**
+   * The graph with a new vertex joined to vertices 0, 1 and 2.
+   *
+   * @param graph The graph.
+   * @return The larger Graph.
+   */
+  public static Graph padded(Graph graph) {
+    int   order  = graph.getOrder();
+    Graph padded = copy(graph, graph.getName() + "-padded", order + 1);
+
+    for (int i = 0; i < 3; i++) {
+      padded.addEdge(i, order);
+    }
+
+    return padded;
+  }
+
+  /**
+   * A stacked planar triangulation with two more vertices than the graph,
+   * each new vertex placed in the face made by the three before it.
+   *
+   * @param graph The graph.
+   * @return The planar Graph.
+   */
+  public static Graph triangulation(Graph graph) {
+    int   order         = graph.getOrder() + 2;
+    Graph triangulation = new Graph(graph.getName() + "-triangulation",
+                                    order);
+
+    for (int vertex = 1; vertex < order; vertex++) {
+      for (int back = 1; back <= 3 && back <= vertex; back++) {
+        triangulation.addEdge(vertex - back, vertex);
+      }
+    }
+
+    return triangulation;
+  }
+
+  /**
+   * The near miss with each missing edge added, in order, that leaves it
+   * without the graph as a minor.  What is left has the degrees, blocks
+   * and treewidth to pass every MinorFilter.  K7 is the exception: its
+   * near miss saturates to a graph of treewidth five, which the Hadwiger
+   * bound rules out, so a complete graph gets the cocktail party graph on
+   * one more vertex instead, K2,2,2,2 for K7, whose treewidth is six but
+   * whose largest complete minor is K6.
+   *
+   * @param graph The graph.
+   * @return The saturated Graph.
+   */
+  public static Graph saturated(Graph graph) {
+    int    order = graph.getOrder();
+    String name  = graph.getName() + "-saturated";
+
+    if (graph.getSize() == order * (order - 1) / 2) {
+      Graph cocktail = new Graph(name, order + 1);
+
+      for (int from = 0; from <= order; from++) {
+        for (int to = from + 1; to <= order; to++) {
+          if (from / 2 != to / 2) {
+            cocktail.addEdge(from, to);
+          }
+        }
+      }
+
+      return cocktail;
+    }
+
+    Graph saturated = rename(nearMiss(graph), name);
+
+    for (int from = 0; from < saturated.getOrder(); from++) {
+      for (int to = from + 1; to < saturated.getOrder(); to++) {
+        if (!saturated.hasEdge(from, to)) {
+          Graph larger = rename(saturated, name);
+
+          larger.addEdge(from, to);
+          if (!larger.containsMinor(graph, null)) {
+            saturated = larger;
+          }
+        }
+      }
+    }
+
+    return saturated;
+  }
+
+  /**
+   * Copies the edges of the graph into a new graph of the given order.
+   */
+  private static Graph copy(Graph graph, String name, int order) {
+    Graph copy = new Graph(name, order);
+
+    for (int[] edge : graph.edges()) {
+      copy.addEdge(edge[0], edge[1]);
+    }
+
+    return copy;
+  }
+
+  /**
+   * Copies the graph without one of its edges.
+   */
+  private static Graph withoutEdge(Graph graph, int from, int to) {
+    Graph copy = new Graph(graph.getName(), graph.getOrder());
+
+    for (int[] edge : graph.edges()) {
+      if (!(edge[0] == from && edge[1] == to) &&
+          !(edge[0] == to && edge[1] == from)) {
+        copy.addEdge(edge[0], edge[1]);
+      }
+    }
+
+    return copy;
+  }
+
+  /**
+   * Copies the graph under a new name.
+   */
+  private static Graph rename(Graph graph, String name) {
+    return copy(graph, name, graph.getOrder());
+  }
+}
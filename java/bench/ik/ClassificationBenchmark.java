@@ -0,0 +1,101 @@
+package ik;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of each classification test in KnotFinder.IK_CLASSIFICATIONS
+ * on graphs built from the known graph the test is about (H9 for the tests
+ * that are not about a particular graph):
+ *
+ *   expansion      ContainsMinor tests find their graph; MinorOf tests
+ *                  rule the graph out by size.
+ *   deletion       MinorOf tests find it is a minor of their graph;
+ *                  ContainsMinor tests rule it out by size.
+ *   nearMiss       Both kinds of test search and usually fail.
+ *   triangulation  A planar graph larger than the pattern, which the
+ *                  ContainsMinor tests rule out without a search.
+ *   saturated      A graph that passes every prefilter yet lacks the
+ *                  pattern, so ContainsMinor tests search and fail.
+ *
+ * The shared MinorSearchCache, and what the ContainsMinor tests remember of
+ * the last graph they searched, are cleared before each invocation, so each
+ * one runs the search the test would run on a graph it has not seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClassificationBenchmark {
+  @Param({"NullClassification",
+          "OrderClassification",
+          "AbsoluteSizeClassification",
+          "RelativeSizeClassification",
+          "PlanarityClassification",
+          "ContainsMinorK7Classification",
+          "ContainsMinorH8Classification",
+          "ContainsMinorH9Classification",
+          "ContainsMinorF9Classification",
+          "ContainsMinorK3311Classification",
+          "ContainsMinorA9Classification",
+          "ContainsMinorB9Classification",
+          "MinorOfK7Classification",
+          "MinorOfH8Classification",
+          "MinorOfH9Classification",
+          "MinorOfF9Classification",
+          "MinorOfK3311Classification",
+          "MinorOfA9Classification",
+          "MinorOfB9Classification"})
+  public String test;
+
+  @Param({"expansion", "deletion", "nearMiss", "triangulation",
+          "saturated"})
+  public String fixture;
+
+  private IKClassification classification;
+  private Graph            graph;
+
+  /**
+   * Finds the test and builds its graph.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    Graph pattern = null;
+
+    classification = BenchmarkGraphs.test(test);
+    pattern        = BenchmarkGraphs.patternFor(classification);
+
+    if (fixture.equals("expansion")) {
+      graph = BenchmarkGraphs.expansion(pattern);
+    } else if (fixture.equals("deletion")) {
+      graph = BenchmarkGraphs.deletion(pattern);
+    } else if (fixture.equals("nearMiss")) {
+      graph = BenchmarkGraphs.nearMiss(pattern);
+    } else if (fixture.equals("triangulation")) {
+      graph = BenchmarkGraphs.triangulation(pattern);
+    } else {
+      graph = BenchmarkGraphs.saturated(pattern);
+    }
+  }
+
+  /**
+   * Empties the shared cache, and has a ContainsMinor test forget the last
+   * graph it searched, so no invocation is answered from them.
+   */
+  @Setup(Level.Invocation)
+  public void clearCache() {
+    MinorSearchCache.getShared().clear();
+
+    if (classification instanceof ContainsMinorClassification) {
+      ((ContainsMinorClassification)classification).forget();
+    }
+  }
+
+  @Benchmark
+  public String classify() {
+    return classification.classify(graph);
+  }
+}
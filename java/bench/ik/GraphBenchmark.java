@@ -0,0 +1,119 @@
+package ik;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks of the Graph operations the classification tests are built
+ * from, run against each of the known minor minimal IK graphs.
+ *
+ * The minor searches are run without the shared MinorSearchCache, so that
+ * every invocation pays for the whole search rather than a cache lookup;
+ * the cached variants clear the cache before each invocation and so
+ * measure a search that fills the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmark {
+  @Param({"K7", "H8", "H9", "F9", "K3311", "A9", "B9"})
+  public String pattern;
+
+  private Graph            graph;
+  private Graph            expansion;
+  private Graph            nearMiss;
+  private Graph            deletion;
+  private Graph            padded;
+  private Graph            triangulation;
+  private Graph            saturated;
+  private MinorSearchCache cache;
+  private int[]            removed;
+
+  /**
+   * Builds the graphs for the pattern.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    graph         = BenchmarkGraphs.pattern(pattern);
+    expansion     = BenchmarkGraphs.expansion(graph);
+    nearMiss      = BenchmarkGraphs.nearMiss(graph);
+    deletion      = BenchmarkGraphs.deletion(graph);
+    padded        = BenchmarkGraphs.padded(graph);
+    triangulation = BenchmarkGraphs.triangulation(graph);
+    saturated     = BenchmarkGraphs.saturated(graph);
+    cache         = new MinorSearchCache(MinorSearchCache.DEFAULT_BUDGET);
+    removed       = new int[] {0};
+  }
+
+  /**
+   * Empties the cache used by the cached minor searches.
+   */
+  @Setup(Level.Invocation)
+  public void clearCache() {
+    cache.clear();
+  }
+
+  @Benchmark
+  public boolean containsSubgraphPositive() {
+    return padded.containsSubgraph(graph);
+  }
+
+  @Benchmark
+  public boolean containsSubgraphNegative() {
+    return expansion.containsSubgraph(graph);
+  }
+
+  @Benchmark
+  public boolean containsMinorPositive() {
+    return expansion.containsMinor(graph, null);
+  }
+
+  @Benchmark
+  public boolean containsMinorNegative() {
+    return saturated.containsMinor(graph, null);
+  }
+
+  @Benchmark
+  public boolean containsMinorPrefiltered() {
+    return triangulation.containsMinor(graph, null);
+  }
+
+  @Benchmark
+  public boolean containsMinorNearMiss() {
+    return nearMiss.containsMinor(graph, null);
+  }
+
+  @Benchmark
+  public boolean containsMinorNearMissCached() {
+    return nearMiss.containsMinor(graph, cache);
+  }
+
+  @Benchmark
+  public boolean containsMinorPositiveBranchSet() {
+    return expansion.containsMinor(graph, null, MinorEngine.BRANCH_SET);
+  }
+
+  @Benchmark
+  public boolean containsMinorNearMissBranchSet() {
+    return nearMiss.containsMinor(graph, null, MinorEngine.BRANCH_SET);
+  }
+
+  @Benchmark
+  public boolean minorOfPositive() {
+    return graph.containsMinor(deletion, null);
+  }
+
+  @Benchmark
+  public Graph contractEdge() {
+    return expansion.contractEdge(0, expansion.getOrder() - 1);
+  }
+
+  @Benchmark
+  public Graph removeVertices() {
+    return expansion.removeVertices(removed);
+  }
+}
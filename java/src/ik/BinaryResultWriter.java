@@ -0,0 +1,318 @@
+package ik;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.TimeZone;
+
+/**
+ * Writes the results of a KnotFinder run in a compact binary format, on a
+ * background thread so that classifying never waits on the output.
+ *
+ * The file starts with a header:
+ *
+ * <pre>
+ *   long   magic
+ *   int    version
+ *   long   start time, in milliseconds since the epoch
+ *   int    offset of the local time zone at the start, in seconds
+ *   UTF    command line
+ *   int    number of tests, followed by the UTF name of each
+ * </pre>
+ *
+ * then a fixed size record for each graph:
+ *
+ * <pre>
+ *   byte   state, an index into STATES
+ *   byte   index of the test that decided it, -1 for none
+ *   long   graph id, the number in its name
+ *   long   nanoseconds spent classifying it
+ *   long   search nodes visited classifying it
+ * </pre>
+ *
+ * and ends with a byte END followed by the long end time.  Results are
+ * collected in memory and written and flushed in groups, once enough have
+ * collected or a moment has passed, by a single writer thread.  A writer
+ * that falls far enough behind makes the results wait for it.
+ */
+public class BinaryResultWriter implements Flushable, Closeable {
+  static final long     MAGIC       = 0x494B526573756C74L;
+  static final int      VERSION     = 1;
+  static final byte     END         = -1;
+  static final String[] STATES      = {IKClassification.IS_NOT_IK,
+                                       IKClassification.IS_IK,
+                                       IKClassification.CANNOT_DETERMINE_IK,
+                                       IKClassification.BUDGET_EXHAUSTED};
+
+  // A group is written once this many bytes have collected or this long
+  // after its first result, and results wait while this many are pending
+  private static final int  GROUP_BYTES   = 1 << 16;
+  private static final long GROUP_MILLIS  = 1000;
+  private static final int  PENDING_BYTES = 1 << 22;
+
+  private final OutputStream          out;
+  private final Thread                thread;
+  private       ByteArrayOutputStream pending;
+  private       DataOutputStream      data;
+  private       ByteArrayOutputStream spare;
+  private       long                  appended;
+  private       long                  written;
+  private       long                  flushTo;
+  private       boolean               closed;
+  private       IOException           failure;
+
+  /**
+   * Creates a new BinaryResultWriter and starts its writer thread.
+   *
+   * @param out The stream the results are written to.
+   */
+  public BinaryResultWriter(OutputStream out) {
+    this.out      = out;
+    this.pending  = new ByteArrayOutputStream(GROUP_BYTES);
+    this.data     = new DataOutputStream(pending);
+    this.spare    = new ByteArrayOutputStream(GROUP_BYTES);
+    this.appended = 0;
+    this.written  = 0;
+    this.flushTo  = 0;
+    this.closed   = false;
+    this.failure  = null;
+    this.thread   = new Thread("BinaryResultWriter") {
+      public void run() {
+        writeGroups();
+      }
+    };
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Writes the header of the results.
+   *
+   * @param start The time the run started, in milliseconds since the epoch.
+   * @param command The command line of the run.
+   * @param tests The tests whose indexes the results refer to.
+   * @throws IOException if an earlier write failed.
+   */
+  public synchronized void writeHeader(long               start,
+                                       String             command,
+                                       IKClassification[] tests)
+                                      throws IOException {
+    int before = pending.size();
+
+    data.writeLong(MAGIC);
+    data.writeInt(VERSION);
+    data.writeLong(start);
+    data.writeInt(TimeZone.getDefault().getOffset(start) / 1000);
+    data.writeUTF(command);
+    data.writeInt(tests.length);
+    for (int i = 0; i < tests.length; i++) {
+      data.writeUTF(tests[i].getName());
+    }
+
+    appended(before);
+  }
+
+  /**
+   * Writes the result of a graph.
+   *
+   * @param id The number of the graph.
+   * @param result The result, one of the IKClassification states.
+   * @param test The index of the test that decided it, or -1.
+   * @param nanos The nanoseconds spent classifying it.
+   * @param nodes The search nodes visited classifying it.
+   * @throws IOException if an earlier write failed.
+   */
+  public synchronized void write(long   id,
+                                 String result,
+                                 int    test,
+                                 long   nanos,
+                                 long   nodes) throws IOException {
+    while (pending.size() >= PENDING_BYTES && failure == null) {
+      notifyAll();
+      waitForWriter();
+    }
+
+    int before = pending.size();
+
+    data.writeByte(stateIndex(result));
+    data.writeByte(test);
+    data.writeLong(id);
+    data.writeLong(nanos);
+    data.writeLong(nodes);
+
+    appended(before);
+  }
+
+  /**
+   * Waits until every result so far has been written to the stream and
+   * the stream flushed.
+   *
+   * @throws IOException if a write failed.
+   */
+  public synchronized void flush() throws IOException {
+    long target = appended;
+
+    flushTo = Math.max(flushTo, target);
+    notifyAll();
+
+    while (written < target && failure == null) {
+      waitForWriter();
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Writes the end of the results, waits for everything to be written and
+   * closes the stream.
+   *
+   * @param end The time the run ended, in milliseconds since the epoch.
+   * @throws IOException if a write failed.
+   */
+  public void close(long end) throws IOException {
+    synchronized (this) {
+      int before = pending.size();
+
+      data.writeByte(END);
+      data.writeLong(end);
+      appended(before);
+    }
+
+    close();
+  }
+
+  /**
+   * Waits for everything to be written, stops the writer thread and closes
+   * the stream.
+   *
+   * @throws IOException if a write failed.
+   */
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    out.close();
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Writes the pending results in groups until the writer is closed and
+   * nothing is left.
+   */
+  private void writeGroups() {
+    while (true) {
+      ByteArrayOutputStream group = null;
+      long                  target;
+
+      synchronized (this) {
+        long first = System.currentTimeMillis();
+
+        while (!closed && flushTo <= written &&
+               pending.size() < GROUP_BYTES) {
+          if (pending.size() == 0) {
+            waitForResults(0);
+            first = System.currentTimeMillis();
+            continue;
+          }
+
+          long wait = GROUP_MILLIS - (System.currentTimeMillis() - first);
+
+          if (wait <= 0) {
+            break;
+          }
+          waitForResults(wait);
+        }
+
+        if (closed && pending.size() == 0) {
+          return;
+        }
+
+        // Results keep collecting in the other buffer during the write
+        group   = pending;
+        pending = spare;
+        spare   = group;
+        data    = new DataOutputStream(pending);
+        target  = appended;
+      }
+
+      try {
+        group.writeTo(out);
+        out.flush();
+        group.reset();
+      } catch (IOException e) {
+        synchronized (this) {
+          failure = e;
+          notifyAll();
+        }
+        return;
+      }
+
+      synchronized (this) {
+        written = target;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Counts what has been added to the pending buffer, waking the writer
+   * for the first result of a group and once there is a group's worth.
+   */
+  private void appended(int before) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+
+    appended += pending.size() - before;
+
+    if (before == 0 || pending.size() >= GROUP_BYTES) {
+      notifyAll();
+    }
+  }
+
+  private void waitForWriter() {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void waitForResults(long millis) {
+    try {
+      wait(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The index of a state in STATES.
+   */
+  private static int stateIndex(String result) {
+    for (int i = 0; i < STATES.length; i++) {
+      if (STATES[i].equals(result)) {
+        return i;
+      }
+    }
+
+    throw new IllegalArgumentException("Unknown result " + result);
+  }
+}
@@ -0,0 +1,19 @@
+package ik;
+
+/**
+ * Thrown out of a search when its SearchBudget runs out or is cancelled.
+ * The search is abandoned without a result, and nothing it was part way
+ * through is remembered in the MinorSearchCache.
+ */
+public class BudgetExhaustedException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates a new BudgetExhaustedException.
+   *
+   * @param message A description of the budget that ran out.
+   */
+  public BudgetExhaustedException(String message) {
+    super(message);
+  }
+}
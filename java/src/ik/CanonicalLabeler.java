@@ -0,0 +1,502 @@
+package ik;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Computes a canonical labeling of a graph in process, in the manner of
+ * nauty: the vertices are partitioned into cells which are refined until
+ * every cell is equitable, and a search tree is explored by individualizing
+ * the vertices of the first non-trivial cell and refining again.  Each leaf
+ * of the tree is a labeling of the graph; the leaf with the greatest packed
+ * adjacency matrix is the canonical one.  Leaves which give the same matrix
+ * reveal automorphisms of the graph, and those automorphisms are used to
+ * skip subtrees that are images of subtrees already explored.
+ *
+ * Two graphs are isomorphic exactly when their canonical certificates are
+ * equal.
+ */
+public class CanonicalLabeler {
+  private final long[][] rows;
+  private final int      order;
+  private final int      words;
+
+  private int[]          firstLabeling;
+  private long[]         firstBits;
+  private int[]          bestLabeling;
+  private long[]         bestBits;
+  private List<int[]>    generators;
+
+  /**
+   * The outcome of labeling a graph.
+   */
+  public static final class Result {
+    private final int[]            labeling;
+    private final GraphCertificate certificate;
+    private final List<int[]>      generators;
+    private final int[]            orbits;
+
+    Result(int[]            labeling,
+           GraphCertificate certificate,
+           List<int[]>      generators,
+           int[]            orbits) {
+      this.labeling    = labeling;
+      this.certificate = certificate;
+      this.generators  = generators;
+      this.orbits      = orbits;
+    }
+
+    /**
+     * The canonical position of each vertex, so that the edge (u, v) of the
+     * graph is the edge (labeling[u], labeling[v]) of the canonical graph.
+     *
+     * @return An array indexed by vertex.
+     */
+    public int[] getLabeling() {
+      return labeling.clone();
+    }
+
+    /**
+     * The certificate of the canonically labeled graph.
+     *
+     * @return The canonical GraphCertificate.
+     */
+    public GraphCertificate getCertificate() {
+      return certificate;
+    }
+
+    /**
+     * Permutations which generate the automorphism group of the graph.
+     * Each permutation maps vertex v to permutation[v].
+     *
+     * @return An unmodifiable List of permutations.
+     */
+    public List<int[]> getGenerators() {
+      return generators;
+    }
+
+    /**
+     * The orbits of the automorphism group, given for each vertex as the
+     * least vertex in its orbit.
+     *
+     * @return An array indexed by vertex.
+     */
+    public int[] getOrbits() {
+      return orbits.clone();
+    }
+  }
+
+  /**
+   * Labels the graph canonically.
+   *
+   * @param graph The graph to label.
+   * @return The Result of the labeling.
+   */
+  public static Result label(Graph graph) {
+    return label(graph, null);
+  }
+
+  /**
+   * Labels the graph canonically, treating it as a graph whose vertices are
+   * colored.  Vertices with a lesser color come first in the canonical
+   * labeling, and only automorphisms which preserve the colors are found.
+   * The certificate describes the edges alone, so it should only be compared
+   * between graphs colored the same way.
+   *
+   * @param graph  The graph to label.
+   * @param colors The color of each vertex, or null for no colors.
+   * @return The Result of the labeling.
+   */
+  public static Result label(Graph graph, int[] colors) {
+    return new CanonicalLabeler(graph).search(colors);
+  }
+
+  private CanonicalLabeler(Graph graph) {
+    this.rows  = graph.adjacencyRows();
+    this.order = graph.getOrder();
+    this.words = (order + 63) >>> 6;
+  }
+
+  /**
+   * Runs the search from the initial partition given by the colors.
+   */
+  private Result search(int[] colors) {
+    int[]     lab   = new int[order];
+    boolean[] start = new boolean[order + 1];
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      lab[vertex] = vertex;
+    }
+
+    // Sort the vertices by color, each color being its own cell
+    if (colors != null) {
+      for (int i = 1; i < order; i++) {
+        int vertex = lab[i];
+        int j      = i - 1;
+
+        while (j >= 0 && colors[lab[j]] > colors[vertex]) {
+          lab[j + 1] = lab[j];
+          j--;
+        }
+        lab[j + 1] = vertex;
+      }
+    }
+
+    for (int i = 0; i <= order; i++) {
+      start[i] = i == 0 || i == order ||
+                 (colors != null && colors[lab[i]] != colors[lab[i - 1]]);
+    }
+
+    generators = new ArrayList<int[]>();
+    searchNode(lab, start, new int[order], 0);
+
+    if (order == 0) {
+      bestLabeling = new int[0];
+      bestBits     = new long[0];
+    }
+
+    int[] labeling = new int[order];
+    for (int position = 0; position < order; position++) {
+      labeling[bestLabeling[position]] = position;
+    }
+
+    return new Result(labeling,
+                      new GraphCertificate(order, bestBits),
+                      Collections.unmodifiableList(generators),
+                      orbits(generators, null, 0));
+  }
+
+  /**
+   * Explores one node of the search tree.
+   *
+   * @param lab   The vertices in partition order.
+   * @param start Marks the positions at which a cell starts.
+   * @param fixed The vertices individualized on the way to this node.
+   * @param depth The number of individualized vertices.
+   */
+  private void searchNode(int[] lab, boolean[] start, int[] fixed, int depth) {
+    refine(lab, start);
+
+    // Find the first cell with more than one vertex
+    int cell = 0;
+    while (cell < order && start[cell + 1]) {
+      cell++;
+    }
+
+    if (cell >= order) {
+      processLeaf(lab);
+      return;
+    }
+
+    int cellEnd = cell + 1;
+    while (!start[cellEnd]) {
+      cellEnd++;
+    }
+
+    int[] tried      = new int[cellEnd - cell];
+    int   triedCount = 0;
+
+    for (int position = cell; position < cellEnd; position++) {
+      int vertex = lab[position];
+
+      if (triedCount > 0 && equivalentToTried(vertex, tried, triedCount,
+                                              fixed, depth)) {
+        continue;
+      }
+
+      int[]     childLab   = lab.clone();
+      boolean[] childStart = start.clone();
+
+      // Move the vertex to the front of its cell and split it off
+      childLab[position] = childLab[cell];
+      childLab[cell]     = vertex;
+      childStart[cell+1] = true;
+
+      fixed[depth] = vertex;
+      searchNode(childLab, childStart, fixed, depth + 1);
+
+      tried[triedCount++] = vertex;
+    }
+  }
+
+  /**
+   * Determines whether an automorphism already found, which fixes each of
+   * the individualized vertices, maps the vertex onto one already tried.
+   */
+  private boolean equivalentToTried(int   vertex,
+                                    int[] tried,
+                                    int   triedCount,
+                                    int[] fixed,
+                                    int   depth) {
+    int[] orbits = orbits(generators, fixed, depth);
+
+    for (int i = 0; i < triedCount; i++) {
+      if (orbits[tried[i]] == orbits[vertex]) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Compares a discrete partition with the first and best leaves found so
+   * far, recording automorphisms and a new best leaf.
+   */
+  private void processLeaf(int[] lab) {
+    long[] bits = leafBits(lab);
+
+    if (firstLabeling == null) {
+      firstLabeling = bestLabeling = lab;
+      firstBits     = bestBits     = bits;
+      return;
+    }
+
+    if (compare(bits, firstBits) == 0) {
+      addGenerator(firstLabeling, lab);
+      return;
+    }
+
+    int comparison = compare(bits, bestBits);
+
+    if (comparison == 0) {
+      addGenerator(bestLabeling, lab);
+    } else if (comparison > 0) {
+      bestLabeling = lab;
+      bestBits     = bits;
+    }
+  }
+
+  /**
+   * Records the automorphism which carries one leaf onto another with the
+   * same adjacency matrix.
+   */
+  private void addGenerator(int[] fromLab, int[] toLab) {
+    int[] permutation = new int[order];
+
+    for (int position = 0; position < order; position++) {
+      permutation[fromLab[position]] = toLab[position];
+    }
+
+    generators.add(permutation);
+  }
+
+  /**
+   * Packs the adjacency matrix of the graph relabeled by the leaf.
+   */
+  private long[] leafBits(int[] lab) {
+    long[] bits     = new long[GraphCertificate.packedLength(order)];
+    int[]  position = new int[order];
+
+    for (int i = 0; i < order; i++) {
+      position[lab[i]] = i;
+    }
+
+    for (int from = 0; from < order; from++) {
+      long[] row = rows[from];
+
+      for (int word = 0; word < words; word++) {
+        long neighbors = row[word];
+
+        while (neighbors != 0) {
+          int to = (word << 6) + Long.numberOfTrailingZeros(neighbors);
+          neighbors &= neighbors - 1;
+
+          int p = position[from];
+          int q = position[to];
+
+          if (p < q) {
+            int index = GraphCertificate.packedIndex(order, p, q);
+            bits[index >>> 6] |= 1L << index;
+          }
+        }
+      }
+    }
+
+    return bits;
+  }
+
+  /**
+   * Refines the partition until it is equitable, that is until every vertex
+   * of a cell has the same number of neighbors in every other cell.  Cells
+   * are split by that number of neighbors, the fewest first, so the result
+   * does not depend on how the graph is labeled.
+   */
+  private void refine(int[] lab, boolean[] start) {
+    long[] mask  = new long[words];
+    int[]  count = new int[order];
+    boolean split;
+
+    do {
+      split = false;
+
+      for (int splitter = 0; splitter < order && !split; ) {
+        int splitterEnd = cellEnd(start, splitter);
+
+        Arrays.fill(mask, 0L);
+        for (int i = splitter; i < splitterEnd; i++) {
+          mask[lab[i] >>> 6] |= 1L << lab[i];
+        }
+
+        for (int cell = 0; cell < order && !split; ) {
+          int end = cellEnd(start, cell);
+
+          if (end - cell > 1) {
+            split = splitCell(lab, start, cell, end, mask, count);
+          }
+
+          cell = end;
+        }
+
+        splitter = splitterEnd;
+      }
+    } while (split);
+  }
+
+  /**
+   * Splits one cell by the number of neighbors each of its vertices has in
+   * the splitter.
+   *
+   * @return A boolean indicating whether the cell was split.
+   */
+  private boolean splitCell(int[]     lab,
+                            boolean[] start,
+                            int       cell,
+                            int       end,
+                            long[]    mask,
+                            int[]     count) {
+    boolean differs = false;
+
+    for (int i = cell; i < end; i++) {
+      long[] row = rows[lab[i]];
+      int    c   = 0;
+
+      for (int word = 0; word < words; word++) {
+        c += Long.bitCount(row[word] & mask[word]);
+      }
+
+      count[i] = c;
+      differs |= c != count[cell];
+    }
+
+    if (!differs) {
+      return false;
+    }
+
+    // Stable insertion sort of the cell by the counts
+    for (int i = cell + 1; i < end; i++) {
+      int vertex = lab[i];
+      int c      = count[i];
+      int j      = i - 1;
+
+      while (j >= cell && count[j] > c) {
+        lab[j + 1]   = lab[j];
+        count[j + 1] = count[j];
+        j--;
+      }
+
+      lab[j + 1]   = vertex;
+      count[j + 1] = c;
+    }
+
+    for (int i = cell + 1; i < end; i++) {
+      if (count[i] != count[i - 1]) {
+        start[i] = true;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * The position just past the end of the cell starting at the position.
+   */
+  private int cellEnd(boolean[] start, int cell) {
+    int end = cell + 1;
+
+    while (!start[end]) {
+      end++;
+    }
+
+    return end;
+  }
+
+  /**
+   * Computes the orbits of the group generated by the permutations which fix
+   * each of the supplied vertices.
+   *
+   * @param generators The permutations.
+   * @param fixed The vertices which must be fixed, or null.
+   * @param depth The number of fixed vertices.
+   * @return For each vertex, the least vertex in its orbit.
+   */
+  private int[] orbits(List<int[]> generators, int[] fixed, int depth) {
+    int[] parent = new int[order];
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      parent[vertex] = vertex;
+    }
+
+    for (int g = 0; g < generators.size(); g++) {
+      int[]   permutation = generators.get(g);
+      boolean fixes       = true;
+
+      for (int i = 0; i < depth && fixes; i++) {
+        fixes = permutation[fixed[i]] == fixed[i];
+      }
+
+      if (fixes) {
+        for (int vertex = 0; vertex < order; vertex++) {
+          union(parent, vertex, permutation[vertex]);
+        }
+      }
+    }
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      parent[vertex] = find(parent, vertex);
+    }
+
+    return parent;
+  }
+
+  /**
+   * Merges two sets, keeping the lesser root.
+   */
+  private static void union(int[] parent, int a, int b) {
+    int rootA = find(parent, a);
+    int rootB = find(parent, b);
+
+    if (rootA < rootB) {
+      parent[rootB] = rootA;
+    } else if (rootB < rootA) {
+      parent[rootA] = rootB;
+    }
+  }
+
+  /**
+   * Finds the root of the set holding the element.
+   */
+  private static int find(int[] parent, int element) {
+    while (parent[element] != element) {
+      parent[element] = parent[parent[element]];
+      element         = parent[element];
+    }
+
+    return element;
+  }
+
+  /**
+   * Compares two packed matrices word by word.
+   */
+  private static int compare(long[] a, long[] b) {
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) {
+        return a[i] < b[i] ? -1 : 1;
+      }
+    }
+
+    return 0;
+  }
+}
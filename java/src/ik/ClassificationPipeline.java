@@ -0,0 +1,169 @@
+package ik;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Classifies graphs on several threads at once.  A reader thread feeds the
+ * graphs into a bounded queue, a pool of workers each run the chain of
+ * classification tests, and the calling thread writes the results, either
+ * in the order the graphs were read or in the order they completed.
+ *
+ * Only a fixed number of graphs may be between the reader and the writer at
+ * any time.  When one graph takes much longer than its neighbors the
+ * results behind it wait to be written in order, and the reader stops
+ * until the slow graph is written, so memory stays bounded.
+ */
+public class ClassificationPipeline {
+  private static final Job END_OF_JOBS = new Job(-1, null);
+
+  private final int                   threads;
+  private final boolean               ordered;
+  private final Semaphore             window;
+  private final BlockingQueue<Job>    jobs;
+  private final BlockingQueue<Object> results;
+
+  /**
+   * Creates a new pipeline.
+   *
+   * @param threads The number of classification workers.
+   * @param ordered Whether results are written in input order, rather than
+   *                in the order they complete.
+   * @param window  The most graphs that may be read but not yet written.
+   */
+  public ClassificationPipeline(int threads, boolean ordered, int window) {
+    this.threads = threads;
+    this.ordered = ordered;
+    this.window  = new Semaphore(window);
+    this.jobs    = new ArrayBlockingQueue<Job>(window + threads);
+    this.results = new LinkedBlockingQueue<Object>();
+  }
+
+  /**
+   * Reads, classifies and writes every graph.
+   *
+   * @throws Exception if reading, classifying or writing a graph fails.
+   */
+  public void run() throws Exception {
+    for (int i = 0; i < threads; i++) {
+      startThread(new Worker(), "classifier-" + i);
+    }
+    startThread(new Reader(), "graph-reader");
+
+    try {
+      write();
+    } finally {
+      for (int i = 0; i < threads; i++) {
+        jobs.offer(END_OF_JOBS);
+      }
+    }
+  }
+
+  /**
+   * Takes results from the workers and logs them until every graph that
+   * was read has been written.
+   */
+  private void write() throws Exception {
+    Map<Long, ClassificationResult> pending =
+      new HashMap<Long, ClassificationResult>();
+    long total   = -1;
+    long written = 0;
+
+    while (total < 0 || written < total) {
+      Object next = results.take();
+
+      if (next instanceof Throwable) {
+        throw new Exception("Classification pipeline failed",
+                            (Throwable)next);
+      } else if (next instanceof Long) {
+        // The reader has finished and this is the number of graphs
+        total = ((Long)next).longValue();
+      } else if (!ordered) {
+        KnotFinder.logResult(((Job)next).result);
+        window.release();
+        written++;
+      } else {
+        Job job = (Job)next;
+        pending.put(Long.valueOf(job.sequence), job.result);
+
+        ClassificationResult result = pending.remove(Long.valueOf(written));
+        while (result != null) {
+          KnotFinder.logResult(result);
+          window.release();
+          written++;
+          result = pending.remove(Long.valueOf(written));
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts a daemon thread, so that a failure never leaves the JVM waiting
+   * on a stuck reader or worker.
+   */
+  private static void startThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Reads each graph and queues it for the workers.
+   */
+  private class Reader implements Runnable {
+    public void run() {
+      try {
+        long  sequence = 0;
+        Graph graph    = KnotFinder.nextGraph();
+
+        while (graph != null) {
+          window.acquire();
+          jobs.put(new Job(sequence++, graph));
+          graph = KnotFinder.nextGraph();
+        }
+
+        results.put(Long.valueOf(sequence));
+      } catch (Throwable t) {
+        results.offer(t);
+      }
+    }
+  }
+
+  /**
+   * Runs the classification tests on queued graphs.
+   */
+  private class Worker implements Runnable {
+    public void run() {
+      try {
+        Job job = jobs.take();
+
+        while (job != END_OF_JOBS) {
+          job.result = KnotFinder.classify(job.graph);
+          results.put(job);
+          job = jobs.take();
+        }
+      } catch (Throwable t) {
+        results.offer(t);
+      }
+    }
+  }
+
+  /**
+   * A graph with its position in the input, and its result once it has
+   * been classified.
+   */
+  private static class Job {
+    private final long           sequence;
+    private final Graph          graph;
+    private ClassificationResult result;
+
+    Job(long sequence, Graph graph) {
+      this.sequence = sequence;
+      this.graph    = graph;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package ik;
+
+/**
+ * The outcome of running the classification tests on one graph: the state
+ * that was determined, the test that determined it, how long it took and,
+ * if they were counted, how many search nodes its tests visited.
+ */
+public class ClassificationResult {
+  private Graph            graph;
+  private String           result;
+  private IKClassification lastTest;
+  private double           seconds;
+  private long             nanos;
+  private long             nodes;
+
+  /**
+   * Creates a new ClassificationResult.
+   *
+   * @param graph The graph that was classified.
+   * @param result The result of the classification.
+   * @param lastTest The test which determined that result.
+   * @param seconds The number of seconds to perform the classification.
+   */
+  public ClassificationResult(Graph            graph,
+                              String           result,
+                              IKClassification lastTest,
+                              double           seconds) {
+    this(graph, result, lastTest, seconds, (long)(seconds * 1e9), 0);
+  }
+
+  /**
+   * Creates a new ClassificationResult with the exact time taken and the
+   * search nodes visited.
+   *
+   * @param graph The graph that was classified.
+   * @param result The result of the classification.
+   * @param lastTest The test which determined that result.
+   * @param seconds The number of seconds to perform the classification.
+   * @param nanos The number of nanoseconds to perform the classification.
+   * @param nodes The number of search nodes visited by the tests.
+   */
+  public ClassificationResult(Graph            graph,
+                              String           result,
+                              IKClassification lastTest,
+                              double           seconds,
+                              long             nanos,
+                              long             nodes) {
+    this.graph    = graph;
+    this.result   = result;
+    this.lastTest = lastTest;
+    this.seconds  = seconds;
+    this.nanos    = nanos;
+    this.nodes    = nodes;
+  }
+
+  /**
+   * The graph that was classified.
+   *
+   * @return The Graph.
+   */
+  public Graph getGraph() {
+    return graph;
+  }
+
+  /**
+   * The result of the classification, one of the IKClassification states.
+   *
+   * @return A String result.
+   */
+  public String getResult() {
+    return result;
+  }
+
+  /**
+   * The test which determined the result.
+   *
+   * @return The last IKClassification that was run.
+   */
+  public IKClassification getLastTest() {
+    return lastTest;
+  }
+
+  /**
+   * The number of seconds it took to classify the graph.
+   *
+   * @return A double number of seconds.
+   */
+  public double getSeconds() {
+    return seconds;
+  }
+
+  /**
+   * The number of nanoseconds it took to classify the graph.
+   *
+   * @return A long number of nanoseconds.
+   */
+  public long getNanos() {
+    return nanos;
+  }
+
+  /**
+   * The number of search nodes the tests visited, if they were counted.
+   *
+   * @return A long count, 0 if the nodes were not counted.
+   */
+  public long getNodes() {
+    return nodes;
+  }
+}
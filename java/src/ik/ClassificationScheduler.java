@@ -0,0 +1,320 @@
+package ik;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses the order in which the classification tests are tried on a
+ * graph.  The cheap tests at the front of the chain always run first, in
+ * their declared order.  The rest are ordered by what they have cost and
+ * how often they have decided graphs of the same order and size.
+ *
+ * If test i costs c(i) on average and decides a graph that reaches it with
+ * probability p(i), trying the tests in increasing order of c(i) / p(i)
+ * minimizes the expected time to a decision.  The probability is smoothed
+ * so that a test which has been tried a few times is not written off, and
+ * a test which has never been tried on a bucket is tried early so that it
+ * gets measured.
+ *
+ * Tests that share their work, so that the first of them to run does work
+ * the rest answer from, can be kept together as one unit.  The unit runs
+ * its tests in their declared order and is ordered by their combined cost
+ * and hits, since the cost of each alone says little.
+ *
+ * The statistics can be saved to and loaded from a file, so that later
+ * runs start with the ordering earlier runs learned.
+ */
+public class ClassificationScheduler {
+  private final IKClassification[]                      tests;
+  private final int                                     fixed;
+  private final int[]                                   units;
+  private final ConcurrentHashMap<Long, TestStatistics> buckets;
+
+  /**
+   * The cost and hit counts of each test on graphs of one order and size.
+   */
+  private static final class TestStatistics {
+    private final long[] attempts;
+    private final long[] hits;
+    private final long[] nanos;
+
+    TestStatistics(int tests) {
+      attempts = new long[tests];
+      hits     = new long[tests];
+      nanos    = new long[tests];
+    }
+
+    synchronized void record(int test, long elapsed, boolean decided) {
+      attempts[test]++;
+      nanos[test] += elapsed;
+
+      if (decided) {
+        hits[test]++;
+      }
+    }
+
+    synchronized void add(int test, long attempts, long hits, long nanos) {
+      this.attempts[test] += attempts;
+      this.hits[test]     += hits;
+      this.nanos[test]    += nanos;
+    }
+
+    /**
+     * The expected cost per decision of trying a unit of tests, 0 if it
+     * has never been tried.  The first test of a unit runs whenever the
+     * unit does.
+     */
+    synchronized double score(int first, int count) {
+      if (attempts[first] == 0) {
+        return 0;
+      }
+
+      long unitHits  = 0;
+      long unitNanos = 0;
+
+      for (int test = first; test < first + count; test++) {
+        unitHits  += hits[test];
+        unitNanos += nanos[test];
+      }
+
+      double cost        = (double)unitNanos / attempts[first];
+      double probability = (unitHits + 1.0) / (attempts[first] + 2.0);
+
+      return cost / probability;
+    }
+
+    synchronized void write(PrintWriter out, IKClassification[] tests,
+                            long key) {
+      for (int i = 0; i < tests.length; i++) {
+        if (attempts[i] != 0) {
+          out.println((key >>> 32)         + " " +
+                      (key & 0xFFFFFFFFL)  + " " +
+                      tests[i].getName()   + " " +
+                      attempts[i]          + " " +
+                      hits[i]              + " " +
+                      nanos[i]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a new ClassificationScheduler with no statistics.
+   *
+   * @param tests The classification tests in their declared order.
+   * @param fixed The number of tests at the front which always run first.
+   */
+  public ClassificationScheduler(IKClassification[] tests, int fixed) {
+    this.tests   = tests;
+    this.fixed   = fixed;
+    this.units   = new int[tests.length];
+    this.buckets = new ConcurrentHashMap<Long, TestStatistics>();
+
+    Arrays.fill(units, 1);
+  }
+
+  /**
+   * Keeps a run of tests together as one unit.  This should be done before
+   * any graph is scheduled.
+   *
+   * @param first The index of the first test of the unit, not one of the
+   *              fixed tests.
+   * @param count The number of tests in the unit.
+   * @throws IllegalArgumentException if the tests are not all adaptive or
+   *         one is already in a unit.
+   */
+  public void keepTogether(int first, int count)
+                           throws IllegalArgumentException {
+    if (first < fixed || count < 1 || first + count > tests.length) {
+      throw new IllegalArgumentException("Tests " + first + " to " +
+                                         (first + count - 1) +
+                                         " cannot be a unit");
+    }
+
+    for (int i = first; i < first + count; i++) {
+      if (units[i] != 1) {
+        throw new IllegalArgumentException("Test " + i +
+                                           " is already in a unit");
+      }
+    }
+
+    // The first test of a unit holds its length, and the rest none
+    Arrays.fill(units, first, first + count, 0);
+    units[first] = count;
+  }
+
+  /**
+   * The order in which to try the tests on a graph.
+   *
+   * @param graph The graph about to be classified.
+   * @return An array of indices into the tests.
+   */
+  public int[] schedule(Graph graph) {
+    final TestStatistics statistics = buckets.get(bucketKey(graph));
+    List<Integer>        adaptive   = new ArrayList<Integer>();
+    int[]                schedule   = new int[tests.length];
+    int                  next       = fixed;
+
+    for (int i = 0; i < fixed; i++) {
+      schedule[i] = i;
+    }
+
+    // Each unit is sorted by its first test
+    for (int i = fixed; i < tests.length; i++) {
+      if (units[i] != 0) {
+        adaptive.add(Integer.valueOf(i));
+      }
+    }
+
+    // The sort is stable, so ties keep the declared order
+    if (statistics != null) {
+      final double[] scores = new double[tests.length];
+
+      for (int i = fixed; i < tests.length; i++) {
+        if (units[i] != 0) {
+          scores[i] = statistics.score(i, units[i]);
+        }
+      }
+
+      Collections.sort(adaptive, new Comparator<Integer>() {
+        public int compare(Integer a, Integer b) {
+          return Double.compare(scores[a], scores[b]);
+        }
+      });
+    }
+
+    for (Integer first : adaptive) {
+      for (int i = first; i < first + units[first]; i++) {
+        schedule[next++] = i;
+      }
+    }
+
+    return schedule;
+  }
+
+  /**
+   * Records the outcome of running a test on a graph.
+   *
+   * @param graph The graph the test was run on.
+   * @param test The index of the test.
+   * @param nanos The number of nanoseconds the test took.
+   * @param decided Whether the test determined a result.
+   */
+  public void record(Graph graph, int test, long nanos, boolean decided) {
+    statisticsFor(bucketKey(graph)).record(test, nanos, decided);
+  }
+
+  /**
+   * Adds the statistics saved in a file to these.  Lines for tests that
+   * no longer exist are skipped.
+   *
+   * @param file The file to read.
+   * @throws IOException if there is an IO error.
+   * @throws IllegalArgumentException if a line is malformed.
+   */
+  public void load(File file) throws IOException,
+                                     IllegalArgumentException {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+
+    try {
+      String line = in.readLine();
+
+      while (line != null) {
+        line = line.trim();
+
+        if (line.length() != 0 && !line.startsWith("#")) {
+          StringTokenizer tokens = new StringTokenizer(line);
+
+          if (tokens.countTokens() != 6) {
+            throw new IllegalArgumentException("Malformed statistics: " +
+                                               line);
+          }
+
+          long order    = Long.parseLong(tokens.nextToken());
+          long size     = Long.parseLong(tokens.nextToken());
+          int  test     = indexOf(tokens.nextToken());
+          long attempts = Long.parseLong(tokens.nextToken());
+          long hits     = Long.parseLong(tokens.nextToken());
+          long nanos    = Long.parseLong(tokens.nextToken());
+
+          if (test >= fixed) {
+            statisticsFor((order << 32) | size).add(test, attempts,
+                                                    hits, nanos);
+          }
+        }
+
+        line = in.readLine();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Saves the statistics to a file, replacing its contents.
+   *
+   * @param file The file to write.
+   * @throws IOException if there is an IO error.
+   */
+  public void save(File file) throws IOException {
+    List<Long>  keys = new ArrayList<Long>(buckets.keySet());
+    PrintWriter out  = new PrintWriter(new BufferedWriter(
+                                         new FileWriter(file)));
+
+    Collections.sort(keys);
+
+    try {
+      out.println("# order size test attempts hits nanoseconds");
+
+      for (Long key : keys) {
+        buckets.get(key).write(out, tests, key);
+      }
+    } finally {
+      out.close();
+    }
+
+    if (out.checkError()) {
+      throw new IOException("Unable to write " + file);
+    }
+  }
+
+  /**
+   * The index of the test with the given name, -1 if there is none.
+   */
+  private int indexOf(String name) {
+    for (int i = 0; i < tests.length; i++) {
+      if (tests[i].getName().equals(name)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * The statistics for a bucket, created if needed.
+   */
+  private TestStatistics statisticsFor(long key) {
+    TestStatistics statistics = buckets.get(key);
+
+    if (statistics == null) {
+      statistics = new TestStatistics(tests.length);
+
+      TestStatistics existing = buckets.putIfAbsent(key, statistics);
+
+      if (existing != null) {
+        statistics = existing;
+      }
+    }
+
+    return statistics;
+  }
+
+  /**
+   * Graphs are bucketed by order and size.
+   */
+  private static long bucketKey(Graph graph) {
+    return ((long)graph.getOrder() << 32) | graph.getSize();
+  }
+}
@@ -5,24 +5,215 @@ package ik;
  * by the definition of a minor, the graph exhibits the intrinsic knotting
  * property.  This classification uses this logic to determine if a graph
  * is intrinsically knotted.
+ *
+ * Classifications made together share the minor searches of each graph.
+ * A classification whose answer is not yet known searches for its own IK
+ * graph first and the undecided ones after it, and the search settles
+ * every IK graph up to the first one the graph contains.  So each answers
+ * for its own IK graph in any order, and when they run in the order they
+ * were made one search usually settles them all.  Once a search of a graph
+ * runs out of its budget, the others give up on the graph at once unless
+ * they have a larger budget.
  */
-public class ContainsMinorClassification implements IKClassification { 
-  private Graph ikGraph;
-  
+public class ContainsMinorClassification implements IKClassification {
+  private Graph        ikGraph;
+  private int          index;
+  private SharedSearch search;
+
+  /**
+   * What the searches have settled about the last graph searched on a
+   * thread, as it was when searched.
+   */
+  private static final class Settled {
+    Graph        graph;
+    int          edits;
+    long         decided;
+    long         found;
+    SearchBudget exhausted;
+  }
+
+  /**
+   * The searches shared by classifications made together, which remember
+   * what they have settled about the last graph searched on each thread.
+   */
+  private static final class SharedSearch {
+    private final Graph[]              ikGraphs;
+    private final MinorEngine          engine;
+    private final ThreadLocal<Settled> settled;
+
+    SharedSearch(Graph[] ikGraphs, MinorEngine engine) {
+      this.ikGraphs = ikGraphs;
+      this.engine   = engine;
+      this.settled  = new ThreadLocal<Settled>() {
+        protected Settled initialValue() {
+          return new Settled();
+        }
+      };
+    }
+
+    /**
+     * Whether the graph contains the IK graph of the given index as a
+     * minor, searching for it and the undecided IK graphs after it unless
+     * an earlier search has settled it.
+     */
+    boolean containsMinor(Graph graph, int index) {
+      Settled known = settled.get();
+      long    bit   = 1L << index;
+
+      // A graph changed since it was searched is searched again
+      if (known.graph != graph || known.edits != graph.edits()) {
+        known.graph     = graph;
+        known.edits     = graph.edits();
+        known.decided   = 0;
+        known.found     = 0;
+        known.exhausted = null;
+      }
+
+      if ((known.decided & bit) == 0) {
+        SearchBudget budget = SearchBudget.current();
+
+        if (budget != null && known.exhausted != null &&
+            budget.isWithin(known.exhausted)) {
+          throw new BudgetExhaustedException("An earlier search of the " +
+                                             "graph ran out of as large " +
+                                             "a budget");
+        }
+
+        try {
+          search(graph, index, known);
+        } catch (BudgetExhaustedException e) {
+          known.exhausted = budget;
+          throw e;
+        }
+      }
+
+      return (known.found & bit) != 0;
+    }
+
+    /**
+     * Forgets what has been settled on this thread.
+     */
+    void forget() {
+      settled.remove();
+    }
+
+    /**
+     * Searches for the IK graph of the given index and then the undecided
+     * ones in order.  The IK graphs up to the first one found are settled:
+     * that one is contained and the ones before it are not.
+     */
+    private void search(Graph graph, int index, Settled known) {
+      long    all       = ikGraphs.length == 64 ? -1L
+                                                : (1L << ikGraphs.length) - 1;
+      long    undecided = all & ~known.decided;
+      Graph[] minors    = new Graph[Long.bitCount(undecided)];
+      int[]   indexes   = new int[minors.length];
+      int     count     = 1;
+
+      indexes[0] = index;
+      for (long left = undecided & ~(1L << index); left != 0;
+           left &= left - 1) {
+        indexes[count++] = Long.numberOfTrailingZeros(left);
+      }
+
+      for (int i = 0; i < minors.length; i++) {
+        minors[i] = ikGraphs[indexes[i]];
+      }
+
+      int first   = graph.findFirstMinor(minors,
+                                         MinorSearchCache.getShared(),
+                                         engine);
+      int settles = first < 0 ? minors.length : first + 1;
+
+      for (int i = 0; i < settles; i++) {
+        known.decided |= 1L << indexes[i];
+      }
+
+      if (first >= 0) {
+        known.found |= 1L << indexes[first];
+      }
+    }
+  }
+
   public ContainsMinorClassification(Graph ikGraph) {
+    this(ikGraph, MinorEngine.CONTRACTION);
+  }
+
+  /**
+   * Creates a classification that searches for the IK graph with the given
+   * engine.
+   *
+   * @param ikGraph The known IK graph.
+   * @param engine The MinorEngine to search with.
+   */
+  public ContainsMinorClassification(Graph ikGraph, MinorEngine engine) {
+    this(ikGraph, 0, new SharedSearch(new Graph[] {ikGraph}, engine));
+  }
+
+  private ContainsMinorClassification(Graph ikGraph, int index,
+                                      SharedSearch search) {
     this.ikGraph = ikGraph;
+    this.index   = index;
+    this.search  = search;
   }
-  
+
+  /**
+   * Creates classifications for several known IK graphs which share the
+   * minor searches of each graph.  A search settles the IK graphs in the
+   * order they are listed, so they should be listed in the order the
+   * classifications are run.
+   *
+   * @param ikGraphs The known IK graphs, at most 64.
+   * @return A classification for each of the IK graphs, in the same order.
+   */
+  public static ContainsMinorClassification[] together(Graph... ikGraphs) {
+    return together(MinorEngine.CONTRACTION, ikGraphs);
+  }
+
+  /**
+   * Creates classifications for several known IK graphs which share the
+   * minor searches of each graph, made with the given engine.
+   *
+   * @param engine The MinorEngine to search with.
+   * @param ikGraphs The known IK graphs, at most 64.
+   * @return A classification for each of the IK graphs, in the same order.
+   */
+  public static ContainsMinorClassification[] together(MinorEngine engine,
+                                                       Graph... ikGraphs) {
+    SharedSearch                  search          =
+                                    new SharedSearch(ikGraphs.clone(),
+                                                     engine);
+    ContainsMinorClassification[] classifications =
+                                    new ContainsMinorClassification[
+                                          ikGraphs.length];
+
+    for (int i = 0; i < ikGraphs.length; i++) {
+      classifications[i] = new ContainsMinorClassification(ikGraphs[i], i,
+                                                           search);
+    }
+
+    return classifications;
+  }
+
   public String classify(Graph graph) {
     String result = CANNOT_DETERMINE_IK;
-    
-    if (graph.containsMinor(ikGraph)) {
-      result = IS_IK;      
+
+    if (search.containsMinor(graph, index)) {
+      result = IS_IK;
     }
 
     return result;
   }
-  
+
+  /**
+   * Forgets what the searches shared with this classification have settled
+   * on this thread, so that the next graph is searched even if it is the
+   * last one classified.
+   */
+  void forget() {
+    search.forget();
+  }
+
   public String getName() {
     return "ContainsMinor"+ikGraph.getName()+"Classification";
   }
@@ -31,4 +222,4 @@ public class ContainsMinorClassification implements IKClassification {
     return "Any graph that contains the known IK graph " + ikGraph.getName() +
            " as a minor (including isomorphisms) is intrinsically knotted.";
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,393 @@
+package ik;
+
+/**
+ * A graph that is changed in place by contracting edges and deleting
+ * vertices and edges, and that can undo those changes in reverse order.
+ * The minor search walks its tree of contractions on one ContractionState
+ * rather than allocating a new Graph for every node.
+ *
+ * The adjacency rows are packed bitsets, as in Graph.  Vertices are
+ * renumbered the same way Graph.contractEdge and Graph.removeVertices
+ * renumber them: a contracted edge keeps its lower vertex, and the vertices
+ * above a removed one move down by one.  Each change records on a trail
+ * the rows it overwrites, in storage allocated up front, so that changing
+ * and undoing allocate nothing.  A change and its undo cost one pass over
+ * the rows.
+ */
+public class ContractionState {
+  private static final int CONTRACT      = 0;
+  private static final int DELETE_VERTEX = 1;
+  private static final int DELETE_EDGE   = 2;
+
+  private final long[][] rows;
+  private final int      words;
+  private final Graph    view;
+  private       int      order;
+  private       int      size;
+
+  // The trail: for each change its kind, its vertices, the size before it
+  // and the rows it overwrote
+  private final int[]    trailKind;
+  private final int[]    trailFrom;
+  private final int[]    trailTo;
+  private final int[]    trailSize;
+  private final long[][] trailRows;
+  private       int      depth;
+
+  /**
+   * Creates a state holding a copy of the graph.  Every change removes an
+   * edge, so there can be at most as many changes outstanding as the graph
+   * has edges and vertices.
+   *
+   * @param graph The graph to start from.
+   */
+  public ContractionState(Graph graph) {
+    int capacity = graph.getOrder() + graph.getSize();
+
+    this.order     = graph.getOrder();
+    this.size      = graph.getSize();
+    this.words     = (order + 63) >>> 6;
+    this.rows      = new long[order][words];
+    this.trailKind = new int[capacity];
+    this.trailFrom = new int[capacity];
+    this.trailTo   = new int[capacity];
+    this.trailSize = new int[capacity];
+    this.trailRows = new long[capacity][2 * words];
+    this.depth     = 0;
+
+    long[][] source = graph.adjacencyRows();
+    for (int vertex = 0; vertex < order; vertex++) {
+      System.arraycopy(source[vertex], 0, rows[vertex], 0, words);
+    }
+
+    this.view = new Graph(graph.getName(), rows, order, size);
+  }
+
+  /**
+   * The current graph.  The same Graph is returned every time and changes
+   * along with the state, so it must not be kept past the next change, and
+   * must not be changed itself.
+   *
+   * @return The Graph viewing the current state.
+   */
+  public Graph getGraph() {
+    return view;
+  }
+
+  /**
+   * The number of vertices in the current graph.
+   *
+   * @return An integer count.
+   */
+  public int getOrder() {
+    return order;
+  }
+
+  /**
+   * The number of edges in the current graph.
+   *
+   * @return An integer count.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * The number of changes that can be undone.
+   *
+   * @return An integer count, which can be passed to undoTo.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Contracts an edge, merging its higher vertex into its lower one.
+   *
+   * @param fromVertex The from vertex for the edge.
+   * @param toVertex The to vertex for the edge.
+   * @throws IllegalArgumentException if there is no such edge.
+   */
+  public void contractEdge(int fromVertex, int toVertex)
+                          throws IllegalArgumentException {
+    validateEdge(fromVertex, toVertex);
+
+    int    minVertex = Math.min(fromVertex, toVertex);
+    int    maxVertex = Math.max(fromVertex, toVertex);
+    long[] minRow    = rows[minVertex];
+    long[] maxRow    = rows[maxVertex];
+    int    common    = 0;
+
+    push(CONTRACT, minVertex, maxVertex, minRow, maxRow);
+
+    for (int word = 0; word < words; word++) {
+      common      += Long.bitCount(minRow[word] & maxRow[word]);
+      minRow[word] |= maxRow[word];
+    }
+    clearBit(minRow, minVertex);
+    clearBit(minRow, maxVertex);
+
+    // The neighbors of the higher vertex become neighbors of the lower
+    for (int vertex = nextBit(maxRow, 0); vertex >= 0;
+         vertex = nextBit(maxRow, vertex + 1)) {
+      if (vertex != minVertex) {
+        setBit(rows[vertex], minVertex);
+      }
+    }
+
+    // The edge itself and one of each pair of parallel edges are lost
+    removeVertex(maxVertex, size - 1 - common);
+  }
+
+  /**
+   * Deletes a vertex along with its edges.
+   *
+   * @param vertex The vertex to delete.
+   * @throws IllegalArgumentException if there is no such vertex.
+   */
+  public void deleteVertex(int vertex) throws IllegalArgumentException {
+    validateVertex(vertex);
+
+    long[] row    = rows[vertex];
+    int    degree = 0;
+
+    push(DELETE_VERTEX, vertex, vertex, row, row);
+
+    for (int word = 0; word < words; word++) {
+      degree += Long.bitCount(row[word]);
+    }
+
+    removeVertex(vertex, size - degree);
+  }
+
+  /**
+   * Deletes an edge.
+   *
+   * @param fromVertex The from vertex for the edge.
+   * @param toVertex The to vertex for the edge.
+   * @throws IllegalArgumentException if there is no such edge.
+   */
+  public void deleteEdge(int fromVertex, int toVertex)
+                        throws IllegalArgumentException {
+    validateEdge(fromVertex, toVertex);
+
+    push(DELETE_EDGE, fromVertex, toVertex, null, null);
+
+    clearBit(rows[fromVertex], toVertex);
+    clearBit(rows[toVertex], fromVertex);
+    size--;
+    view.reshape(order, size);
+  }
+
+  /**
+   * Undoes the last change that has not been undone.
+   *
+   * @throws IllegalStateException if there are no changes to undo.
+   */
+  public void undo() throws IllegalStateException {
+    if (depth == 0) {
+      throw new IllegalStateException("Nothing to undo");
+    }
+
+    depth--;
+
+    int    from  = trailFrom[depth];
+    int    to    = trailTo[depth];
+    long[] saved = trailRows[depth];
+
+    switch (trailKind[depth]) {
+      case CONTRACT:
+        insertVertex(to);
+        restoreRow(from, saved, 0);
+        restoreRow(to, saved, words);
+        break;
+      case DELETE_VERTEX:
+        insertVertex(from);
+        restoreRow(from, saved, 0);
+        break;
+      default:
+        setBit(rows[from], to);
+        setBit(rows[to], from);
+        break;
+    }
+
+    size = trailSize[depth];
+    view.reshape(order, size);
+  }
+
+  /**
+   * Undoes changes until only the given number remain.
+   *
+   * @param targetDepth The depth to return to, from an earlier getDepth.
+   */
+  public void undoTo(int targetDepth) {
+    while (depth > targetDepth) {
+      undo();
+    }
+  }
+
+  /**
+   * Records a change on the trail along with the rows it will overwrite.
+   */
+  private void push(int kind, int from, int to, long[] fromRow,
+                    long[] toRow) {
+    trailKind[depth] = kind;
+    trailFrom[depth] = from;
+    trailTo[depth]   = to;
+    trailSize[depth] = size;
+
+    if (fromRow != null) {
+      System.arraycopy(fromRow, 0, trailRows[depth], 0, words);
+      System.arraycopy(toRow, 0, trailRows[depth], words, words);
+    }
+
+    depth++;
+  }
+
+  /**
+   * Takes a vertex out of the rows, moving the vertices above it down by
+   * one.  The row of the vertex is moved to the end, past the current
+   * order, to be reused when the vertex is put back.
+   */
+  private void removeVertex(int vertex, int newSize) {
+    long[] removed = rows[vertex];
+
+    for (int i = vertex; i < order - 1; i++) {
+      rows[i] = rows[i + 1];
+    }
+    rows[order - 1] = removed;
+    order--;
+
+    for (int i = 0; i < order; i++) {
+      removeBit(rows[i], vertex);
+    }
+
+    size = newSize;
+    view.reshape(order, size);
+  }
+
+  /**
+   * Puts a vertex back at the position it was removed from, with no edges,
+   * moving the vertices at and above it up by one.
+   */
+  private void insertVertex(int vertex) {
+    for (int i = 0; i < order; i++) {
+      insertBit(rows[i], vertex);
+    }
+
+    long[] inserted = rows[order];
+
+    for (int i = order; i > vertex; i--) {
+      rows[i] = rows[i - 1];
+    }
+    rows[vertex] = inserted;
+    order++;
+
+    for (int word = 0; word < words; word++) {
+      inserted[word] = 0;
+    }
+  }
+
+  /**
+   * Restores the row of a vertex from the trail, and the matching column.
+   */
+  private void restoreRow(int vertex, long[] saved, int offset) {
+    System.arraycopy(saved, offset, rows[vertex], 0, words);
+
+    for (int other = 0; other < order; other++) {
+      if (testBit(saved, offset, other)) {
+        setBit(rows[other], vertex);
+      } else {
+        clearBit(rows[other], vertex);
+      }
+    }
+  }
+
+  /**
+   * Validates that the edge exists.
+   *
+   * @throws IllegalArgumentException if it does not.
+   */
+  private void validateEdge(int fromVertex, int toVertex) {
+    validateVertex(fromVertex);
+    validateVertex(toVertex);
+
+    if (!testBit(rows[fromVertex], 0, toVertex)) {
+      throw new IllegalArgumentException("Edge is not in the graph: " +
+                                         fromVertex + " " + toVertex);
+    }
+  }
+
+  /**
+   * Validates that the vertex exists.
+   *
+   * @throws IllegalArgumentException if it does not.
+   */
+  private void validateVertex(int vertex) {
+    if (vertex < 0 || vertex >= order) {
+      throw new IllegalArgumentException("Vertex is not in the valid range:" +
+                                         " 0 <= "+vertex+" < "+order);
+    }
+  }
+
+  /**
+   * Removes a bit from a row, moving the bits above it down by one.
+   */
+  private static void removeBit(long[] row, int bit) {
+    int  word = bit >>> 6;
+    long low  = (1L << bit) - 1;
+
+    row[word] = (row[word] & low) | ((row[word] >>> 1) & ~low);
+
+    for (word++; word < row.length; word++) {
+      row[word - 1] |= row[word] << 63;
+      row[word]    >>>= 1;
+    }
+  }
+
+  /**
+   * Inserts a clear bit into a row, moving the bits at and above it up by
+   * one.  The last bit of the row must be clear.
+   */
+  private static void insertBit(long[] row, int bit) {
+    int first = bit >>> 6;
+
+    for (int word = row.length - 1; word > first; word--) {
+      row[word] = (row[word] << 1) | (row[word - 1] >>> 63);
+    }
+
+    long low = (1L << bit) - 1;
+    row[first] = (row[first] & low) | ((row[first] & ~low) << 1);
+  }
+
+  private static boolean testBit(long[] row, int offset, int vertex) {
+    return (row[offset + (vertex >>> 6)] & (1L << vertex)) != 0;
+  }
+
+  private static void setBit(long[] row, int vertex) {
+    row[vertex >>> 6] |= 1L << vertex;
+  }
+
+  private static void clearBit(long[] row, int vertex) {
+    row[vertex >>> 6] &= ~(1L << vertex);
+  }
+
+  private static int nextBit(long[] row, int startVertex) {
+    int word = startVertex >>> 6;
+
+    if (word >= row.length) {
+      return -1;
+    }
+
+    long bits = row[word] & (-1L << startVertex);
+
+    while (bits == 0) {
+      if (++word == row.length) {
+        return -1;
+      }
+      bits = row[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+}
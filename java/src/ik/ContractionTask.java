@@ -0,0 +1,109 @@
+package ik;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One branch of a minor search split across a ForkJoinPool: the search of
+ * a graph reached by contracting an edge, on a ContractionState of its
+ * own.  The branches of a node run as sibling tasks and report the minors
+ * they find to the node as they finish, so that once nothing is left to
+ * search for the node cancels the budget of the siblings still running.
+ */
+class ContractionTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+
+  private final ContractionState   state;
+  private final Graph[]            minors;
+  private final GraphCertificate[] minorCertificates;
+  private final long               pending;
+  private final boolean            firstOnly;
+  private final MinorSearchCache   cache;
+  private final SearchBudget       budget;
+  private final SearchBudget       siblings;
+  private final AtomicLong         found;
+  private final int                splitDepth;
+  private       RuntimeException   failure;
+
+  /**
+   * Creates a task searching the graph of the state.
+   *
+   * @param state The ContractionState holding the graph, owned by the task.
+   * @param minors The Graphs searched for.
+   * @param minorCertificates The certificates of the minors, or null.
+   * @param pending The minors to search for, one bit each.
+   * @param firstOnly Whether to stop looking for the minors after one that
+   *                  has been found.
+   * @param cache The MinorSearchCache to consult and fill, or null.
+   * @param budget The SearchBudget the task charges, or null.
+   * @param siblings The SearchBudget the sibling tasks are forked from, to
+   *                 cancel when they are no longer needed, or null.
+   * @param found The minors found by the node and its branches so far, one
+   *              bit each, which the task adds its own to.
+   * @param splitDepth The number of levels further down to split.
+   */
+  ContractionTask(ContractionState state, Graph[] minors,
+                  GraphCertificate[] minorCertificates, long pending,
+                  boolean firstOnly, MinorSearchCache cache,
+                  SearchBudget budget, SearchBudget siblings,
+                  AtomicLong found, int splitDepth) {
+    this.state             = state;
+    this.minors            = minors;
+    this.minorCertificates = minorCertificates;
+    this.pending           = pending;
+    this.firstOnly         = firstOnly;
+    this.cache             = cache;
+    this.budget            = budget;
+    this.siblings          = siblings;
+    this.found             = found;
+    this.splitDepth        = splitDepth;
+    this.failure           = null;
+  }
+
+  /**
+   * The exception the search gave up with, if any.
+   *
+   * @return The RuntimeException, or null if the search finished.
+   */
+  RuntimeException getFailure() {
+    return failure;
+  }
+
+  protected void compute() {
+    SearchBudget previous = SearchBudget.current();
+
+    // The subgraph searches charge the budget of the thread
+    SearchBudget.setCurrent(budget);
+
+    try {
+      // A sibling may already have found what this branch would look for
+      long left = Graph.remaining(pending, found.get(), firstOnly);
+
+      if (left != 0) {
+        report(Graph.searchForMinors(state, minors, minorCertificates, left,
+                                     firstOnly, cache, budget, splitDepth));
+      }
+    } catch (RuntimeException e) {
+      failure = e;
+    } finally {
+      SearchBudget.setCurrent(previous);
+    }
+  }
+
+  /**
+   * Adds the minors found to those of the node, and cancels the siblings
+   * once the node has nothing left to search for.
+   */
+  private void report(long minors) {
+    long all = found.get();
+
+    while (!found.compareAndSet(all, all | minors)) {
+      all = found.get();
+    }
+    all |= minors;
+
+    if (siblings != null && Graph.remaining(pending, all, firstOnly) == 0) {
+      siblings.cancel();
+    }
+  }
+}
@@ -0,0 +1,280 @@
+package ik;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * For every graph provided, finds the other graphs that are direct
+ * expansions of it: graphs that have it as a proper minor, with no other
+ * provided graph in between.  The results are written in the same form as
+ * tools/expansion_mapper:
+ *
+ * <pre>
+ *   1: 2, 4
+ *   2: 3
+ *   3: 5
+ * </pre>
+ *
+ * A minor has no more edges than its expansions, so the graphs are
+ * compared in layers by the difference in their sizes, smallest first.
+ * By the time a pair is compared every path between them through graphs
+ * of sizes in between is already known, so a pair joined by such a path
+ * is skipped without a search, and a pair that is searched and found is a
+ * direct expansion.  What is reachable from each graph is kept as a bitset
+ * over the graphs, so that test is a single bit.  The pairs within a layer
+ * are independent and are searched on several threads.
+ */
+public class ExpansionMapper {
+  private final Graph[]         graphs;
+  private final int             threads;
+  private final List<Integer>[] direct;
+  private final long[][]        reach;
+  private final int             words;
+
+  /**
+   * Creates a new ExpansionMapper.
+   *
+   * @param graphs The graphs to map, in the order they are to be written.
+   * @param threads The number of threads to search with.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public ExpansionMapper(List<Graph> graphs, int threads) {
+    this.graphs  = graphs.toArray(new Graph[graphs.size()]);
+    this.threads = threads;
+    this.direct  = new List[this.graphs.length];
+    this.words   = (this.graphs.length + 63) >>> 6;
+    this.reach   = new long[this.graphs.length][words];
+
+    for (int i = 0; i < direct.length; i++) {
+      direct[i] = new ArrayList<Integer>();
+    }
+  }
+
+  /**
+   * The main method, which maps the graphs in a file.
+   */
+  public static void main(String[] args) throws Exception {
+    int threads  = Runtime.getRuntime().availableProcessors();
+    int argIndex = 0;
+
+    if (args.length > 1 && args[0].equals("-t")) {
+      threads  = Integer.parseInt(args[1]);
+      argIndex = 2;
+    }
+
+    if (args.length - argIndex < 1 || args.length - argIndex > 2 ||
+        threads < 1) {
+      System.out.println("usage: java ik.ExpansionMapper [-t threads] " +
+                         "<graph file> [output file]");
+      System.out.println("  -t  The number of threads to search with");
+      System.out.println("  A graph file of - reads from stdin");
+      System.exit(0);
+    }
+
+    List<Graph> graphs = new ArrayList<Graph>();
+    GraphSource source = KnotFinder.openGraphs(args[argIndex], "auto");
+
+    for (Graph graph = source.next(); graph != null; graph = source.next()) {
+      graphs.add(graph);
+    }
+    source.close();
+
+    Writer out = args.length - argIndex == 2 ?
+                 new FileWriter(args[argIndex + 1]) :
+                 new PrintWriter(System.out);
+    out = new BufferedWriter(out);
+
+    ExpansionMapper mapper = new ExpansionMapper(graphs, threads);
+    mapper.map();
+    mapper.print(out);
+    out.close();
+  }
+
+  /**
+   * Finds the direct expansions of every graph.
+   *
+   * @throws Exception if a search fails.
+   */
+  public void map() throws Exception {
+    final int[]     bySize  = sortedBySize();
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+
+    try {
+      int minSize = graphs.length == 0 ? 0 : graphs[bySize[0]].getSize();
+      int maxSize = graphs.length == 0 ? 0 :
+                    graphs[bySize[bySize.length - 1]].getSize();
+
+      for (int difference = 0; difference <= maxSize - minSize;
+           difference++) {
+        mapLayer(workers, bySize, difference);
+        updateReach(bySize);
+      }
+    } finally {
+      workers.shutdown();
+    }
+  }
+
+  /**
+   * Writes each graph with its direct expansions, whose names are sorted
+   * as strings.
+   *
+   * @param out The Writer to write to.
+   * @throws IOException if there is an IO error.
+   */
+  public void print(Writer out) throws IOException {
+    for (int i = 0; i < graphs.length; i++) {
+      List<String> names = new ArrayList<String>();
+
+      for (Integer expansion : direct[i]) {
+        names.add(graphs[expansion.intValue()].getName());
+      }
+      Collections.sort(names);
+
+      out.write(graphs[i].getName() + ": ");
+      for (int j = 0; j < names.size(); j++) {
+        out.write((j == 0 ? "" : ", ") + names.get(j));
+      }
+      out.write("\n");
+    }
+    out.flush();
+  }
+
+  /**
+   * Compares every graph with every unreachable graph whose size is larger
+   * by the difference, splitting the graphs among the threads.
+   */
+  private void mapLayer(ExecutorService workers,
+                        final int[]     bySize,
+                        final int       difference) throws Exception {
+    List<Future<List<int[]>>> results = new ArrayList<Future<List<int[]>>>();
+    int                       chunk   =
+      Math.max(1, (graphs.length + threads * 8 - 1) / (threads * 8));
+
+    for (int start = 0; start < graphs.length; start += chunk) {
+      final int first = start;
+      final int last  = Math.min(graphs.length, start + chunk);
+
+      results.add(workers.submit(new Callable<List<int[]>>() {
+        public List<int[]> call() {
+          List<int[]> found = new ArrayList<int[]>();
+
+          for (int source = first; source < last; source++) {
+            findExpansions(bySize, source, difference, found);
+          }
+
+          return found;
+        }
+      }));
+    }
+
+    for (Future<List<int[]>> result : results) {
+      try {
+        for (int[] pair : result.get()) {
+          direct[pair[0]].add(Integer.valueOf(pair[1]));
+        }
+      } catch (ExecutionException e) {
+        throw new Exception("Expansion search failed", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Searches the graphs of the source's size plus the difference for
+   * direct expansions of the source.
+   */
+  private void findExpansions(int[]       bySize,
+                              int         source,
+                              int         difference,
+                              List<int[]> found) {
+    Graph minor = graphs[source];
+    int   size  = minor.getSize() + difference;
+
+    for (int i = firstOfSize(bySize, size);
+         i < bySize.length && graphs[bySize[i]].getSize() == size; i++) {
+      int   test  = bySize[i];
+      Graph graph = graphs[test];
+
+      // An isomorphic copy is not a proper expansion
+      if ((reach[source][test >>> 6] & (1L << test)) == 0 &&
+          !(graph.getOrder() == minor.getOrder() && difference == 0) &&
+          graph.containsMinor(minor)) {
+        found.add(new int[] {source, test});
+      }
+    }
+  }
+
+  /**
+   * Recomputes what is reachable from each graph through the direct
+   * expansions.  An expansion is larger, or of the same size and larger
+   * order, so working from the largest graphs down every graph's
+   * expansions are done before it.
+   */
+  private void updateReach(int[] bySize) {
+    for (int i = bySize.length - 1; i >= 0; i--) {
+      int    graph = bySize[i];
+      long[] row   = reach[graph];
+
+      for (Integer expansion : direct[graph]) {
+        int    next    = expansion.intValue();
+        long[] nextRow = reach[next];
+
+        row[next >>> 6] |= 1L << next;
+        for (int word = 0; word < words; word++) {
+          row[word] |= nextRow[word];
+        }
+      }
+    }
+  }
+
+  /**
+   * The indices of the graphs ordered by size, then by order.
+   */
+  private int[] sortedBySize() {
+    Integer[] sorted = new Integer[graphs.length];
+
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = Integer.valueOf(i);
+    }
+
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        Graph first  = graphs[a.intValue()];
+        Graph second = graphs[b.intValue()];
+
+        if (first.getSize() != second.getSize()) {
+          return first.getSize() < second.getSize() ? -1 : 1;
+        }
+        return first.getOrder() - second.getOrder();
+      }
+    });
+
+    int[] bySize = new int[sorted.length];
+    for (int i = 0; i < bySize.length; i++) {
+      bySize[i] = sorted[i].intValue();
+    }
+
+    return bySize;
+  }
+
+  /**
+   * The position in bySize of the first graph of the given size, or the
+   * length of bySize if there is none.
+   */
+  private int firstOfSize(int[] bySize, int size) {
+    int low  = 0;
+    int high = bySize.length;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+
+      if (graphs[bySize[middle]].getSize() < size) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+}
@@ -1,6 +1,8 @@
 package ik;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 
@@ -9,11 +11,23 @@ import java.io.BufferedReader;
  * knotted graphs.  It is objects of this Graph class that represents the
  * graphs that we are testing.  The classification tests are performed on
  * these objects.
+ *
+ * The adjacency matrix is stored as a packed bitset, one row of longs per
+ * vertex (a single long for graphs of order 64 or less), and the number of
+ * edges is maintained as edges are added so that the size is always known.
  */
 public class Graph {
-  private String      name;
-  private int         order;
-  private boolean[][] data;
+  // The parallel minor search splits this many levels of contractions into
+  // tasks
+  private static final int SPLIT_DEPTH = 2;
+
+  private String                  name;
+  private int                     order;
+  private int                     size;
+  private int                     words;
+  private long[][]                data;
+  private int                     edits;
+  private CanonicalLabeler.Result canonicalLabeling;
 
   /**
    * Creates a new Graph object.
@@ -24,7 +38,26 @@ public class Graph {
   public Graph(String name, int order) {
     this.name  = name;
     this.order = order;
-    this.data  = new boolean[order][order];
+    this.size  = 0;
+    this.words = (order + 63) >>> 6;
+    this.data  = new long[order][words];
+  }
+
+  /**
+   * Creates a Graph over adjacency rows owned by a ContractionState, which
+   * changes them in place and calls reshape after each change.
+   *
+   * @param name A String name for the graph
+   * @param rows The shared rows, at least order of them
+   * @param order An integer number of vertices for the graph
+   * @param size An integer number of edges for the graph
+   */
+  Graph(String name, long[][] rows, int order, int size) {
+    this.name  = name;
+    this.order = order;
+    this.size  = size;
+    this.words = rows.length == 0 ? 0 : rows[0].length;
+    this.data  = rows;
   }
 
   /**
@@ -51,7 +84,7 @@ public class Graph {
    * @return An integer representing the number of edges in the graph.
    */
   public int getSize() {
-    return edges().size();
+    return size;
   }
 
   /**
@@ -76,21 +109,97 @@ public class Graph {
     return getEdge(fromVertex, toVertex);
   }
 
+  /**
+   * Returns the number of edges attached to the provided vertex.
+   *
+   * @param vertex The vertex we are investigating.
+   * @return An integer representing the degree of the vertex.
+   */
+  public int degree(int vertex) {
+    validateVertex(vertex);
+
+    long[] row    = data[vertex];
+    int    degree = 0;
+
+    for (int word = 0; word < words; word++) {
+      degree += Long.bitCount(row[word]);
+    }
+
+    return degree;
+  }
+
+  /**
+   * Finds the first vertex at or after the supplied starting vertex that is
+   * connected via an edge to the provided vertex.  Walking the neighbors of
+   * a vertex with this method does not allocate, for example:
+   *
+   * <pre>
+   *   for (int to = graph.nextNeighbor(from, 0); to >= 0;
+   *        to = graph.nextNeighbor(from, to + 1)) { ... }
+   * </pre>
+   *
+   * @param fromVertex The vertex we are investigating.
+   * @param startVertex The first vertex to consider.
+   * @return The next connected vertex, or -1 if there are no more.
+   */
+  public int nextNeighbor(int fromVertex, int startVertex) {
+    validateVertex(fromVertex);
+
+    return nextBit(data[fromVertex], startVertex);
+  }
+
+  /**
+   * The certificate of this graph under its canonical labeling.  Two
+   * graphs are isomorphic exactly when their canonical certificates are
+   * equal, which makes it a good hash key for a graph.  The certificate is
+   * computed once and remembered until an edge is added.
+   *
+   * @return The canonical GraphCertificate.
+   */
+  public GraphCertificate canonicalCertificate() {
+    return canonicalLabeling().getCertificate();
+  }
+
+  /**
+   * The canonical labeling of this graph, which also gives its
+   * automorphisms.  It is computed once and remembered along with the
+   * certificate.
+   *
+   * @return The CanonicalLabeler.Result for this graph.
+   */
+  CanonicalLabeler.Result canonicalLabeling() {
+    CanonicalLabeler.Result labeling = canonicalLabeling;
+
+    if (labeling == null) {
+      labeling          = CanonicalLabeler.label(this);
+      canonicalLabeling = labeling;
+    }
+
+    return labeling;
+  }
+
+  /**
+   * Returns an iterator over the edges of this graph which walks the edges
+   * in the same order as edges() without creating an array per edge.
+   *
+   * @return A new EdgeIterator positioned before the first edge.
+   */
+  public EdgeIterator edgeIterator() {
+    return new EdgeIterator();
+  }
+
   /**
    *  The list of edges in this graph.
    *
    * @return A List of edges that are a part of this graph.
    */
   public List<int[]> edges() {
-    List<int[]> edges = new ArrayList<int[]>(maxSize());
+    List<int[]>  edges    = new ArrayList<int[]>(size);
+    EdgeIterator iterator = edgeIterator();
 
-    for (int from = 0; from < getOrder(); from++) {
-      for (int to = from + 1; to < getOrder(); to++) {
-        if (hasEdge(from, to)) {
-          int[] edge = {from, to};
-          edges.add(edge);
-        }
-      }
+    while (iterator.next()) {
+      int[] edge = {iterator.from(), iterator.to()};
+      edges.add(edge);
     }
 
     return edges;
@@ -105,12 +214,11 @@ public class Graph {
    *         provided to the vertices returned.
    */
   public List<Integer> connectedVertices(int fromVertex) {
-    List<Integer> connectedVertices = new ArrayList<Integer>(getOrder());
+    List<Integer> connectedVertices = new ArrayList<Integer>(degree(fromVertex));
 
-    for (int toVertex = 0; toVertex < getOrder(); toVertex++) {
-      if (fromVertex != toVertex && hasEdge(fromVertex, toVertex)) {
-        connectedVertices.add(new Integer(toVertex));
-      }
+    for (int toVertex = nextNeighbor(fromVertex, 0); toVertex >= 0;
+         toVertex = nextNeighbor(fromVertex, toVertex + 1)) {
+      connectedVertices.add(Integer.valueOf(toVertex));
     }
 
     return connectedVertices;
@@ -129,37 +237,22 @@ public class Graph {
     // Cannot contract an edge if we don't have one
     if (hasEdge(fromVertex, toVertex)) {
       minor = new Graph(getName(), getOrder() - 1);
-      int      maxVertex    = fromVertex > toVertex ? fromVertex : toVertex;
-      int      minVertex    = fromVertex > toVertex ? toVertex   : fromVertex;
-      Iterator edgeIterator = edges().iterator();
-
-      while (edgeIterator.hasNext()) {
-        int[] edge    = (int[])edgeIterator.next();
-        int   newFrom = -1;
-        int   newTo   = -1;
-
-        // The vertex labels for the edge may have changed as a result of
-        // one less vertex
-        if (edge[0] == maxVertex) {
-          newFrom = minVertex;
-        } else if (edge[0] > maxVertex) {
-          newFrom = edge[0] - 1;
-        } else {
-          newFrom = edge[0];
-        }
+      int   maxVertex = fromVertex > toVertex ? fromVertex : toVertex;
+      int   minVertex = fromVertex > toVertex ? toVertex   : fromVertex;
+      int[] newLabels = new int[getOrder()];
 
-        if (edge[1] == maxVertex) {
-          newTo = minVertex;
-        } else if (edge[1] > maxVertex) {
-          newTo = edge[1] - 1;
+      // The vertex labels may have changed as a result of one less vertex
+      for (int vertex = 0; vertex < getOrder(); vertex++) {
+        if (vertex == maxVertex) {
+          newLabels[vertex] = minVertex;
+        } else if (vertex > maxVertex) {
+          newLabels[vertex] = vertex - 1;
         } else {
-          newTo = edge[1];
-        }
-
-        if (newFrom != newTo) {
-          minor.addEdge(newFrom, newTo);
+          newLabels[vertex] = vertex;
         }
       }
+
+      minor.addRelabeledEdges(this, newLabels);
     }
 
     return minor;
@@ -172,78 +265,189 @@ public class Graph {
    * @return A new Graph without the vertices provided
    */
   public Graph removeVertices(int[] vertices) {
-    Graph subGraph = new Graph(getName(), getOrder() - vertices.length);
-
-    Iterator edgeIterator = edges().iterator();
+    Graph subGraph  = new Graph(getName(), getOrder() - vertices.length);
+    int[] newLabels = new int[getOrder()];
 
-    while (edgeIterator.hasNext()) {
-      int[] edge = (int[])edgeIterator.next();
-      int   from = edge[0];
-      int   to   = edge[1];
-
-      // If either of the points is in the vertices array, then the point
-      // is thrown out
-      boolean disregardEdge = false;
-      for (int i = 0; i < vertices.length; i++) {
-        if (from == vertices[i] || to == vertices[i]) {
-          disregardEdge = true;
-        }
-      }
-
-      if (!disregardEdge) {
-        int origFrom = from;
-        int origTo   = to;
-
-        // The vertex labels for the edge may have changed as a result of
-        // less vertices
-        for (int i = 0; i < vertices.length; i++) {
-          if (origFrom > vertices[i]) {
-            from--;
-          }
-          if (origTo > vertices[i]) {
-            to--;
-          }
-        }
+    // Vertices that are thrown out are labeled -1, the rest are shifted
+    // down by the number of removed vertices beneath them
+    for (int i = 0; i < vertices.length; i++) {
+      newLabels[vertices[i]] = -1;
+    }
 
-        subGraph.addEdge(from, to);
+    int nextLabel = 0;
+    for (int vertex = 0; vertex < getOrder(); vertex++) {
+      if (newLabels[vertex] == 0) {
+        newLabels[vertex] = nextLabel++;
       }
     }
 
+    subGraph.addRelabeledEdges(this, newLabels);
+
     return subGraph;
   }
 
   /**
-   * Determine if our graph contains as a minor the provided graph.
+   * Determine if our graph contains as a minor the provided graph.  Results
+   * are remembered in the shared MinorSearchCache.
    *
    * @param minor The Graph we are comparing to our graph.
    * @return A boolean value indicating whether or not our graph
    *         contains as a minor the provided graph.
    */
   public boolean containsMinor(Graph minor) {
-    if (getOrder() < minor.getOrder()) { return false; }
-    if (getSize()  < minor.getSize())  { return false; }
-    if (containsSubgraph(minor))       { return true;  }
+    return containsMinor(minor, MinorSearchCache.getShared());
+  }
 
-    // Contracting an edge will result in one less edge and one less vertex
-    // We check to see if we can afford to lose one edge and one vertex
-    if (getSize() <= minor.getSize() || getOrder() <= minor.getOrder()) {
-      return false;
+  /**
+   * Determine if our graph contains as a minor the provided graph,
+   * remembering the results of the search in the supplied cache.
+   *
+   * @param minor The Graph we are comparing to our graph.
+   * @param cache The MinorSearchCache to consult and fill, or null to
+   *              search without one.
+   * @return A boolean value indicating whether or not our graph
+   *         contains as a minor the provided graph.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public boolean containsMinor(Graph minor, MinorSearchCache cache) {
+    return findFirstMinor(new Graph[] {minor}, cache) == 0;
+  }
+
+  /**
+   * Determine if our graph contains as a minor the provided graph, using
+   * the given search engine and remembering the results of the search in
+   * the supplied cache.
+   *
+   * @param minor The Graph we are comparing to our graph.
+   * @param cache The MinorSearchCache to consult and fill, or null to
+   *              search without one.
+   * @param engine The MinorEngine to search with.
+   * @return A boolean value indicating whether or not our graph
+   *         contains as a minor the provided graph.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public boolean containsMinor(Graph minor, MinorSearchCache cache,
+                               MinorEngine engine) {
+    return findFirstMinor(new Graph[] {minor}, cache, engine) == 0;
+  }
+
+  /**
+   * Determine which of the provided graphs our graph contains as minors,
+   * in a single search.  Results are remembered in the shared
+   * MinorSearchCache.
+   *
+   * @param minors The Graphs we are comparing to our graph, at most 64.
+   * @return An array of boolean values indicating whether or not our graph
+   *         contains as a minor each of the provided graphs.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public boolean[] containsMinors(Graph[] minors) {
+    MinorSearchCache   cache        = MinorSearchCache.getShared();
+    long               pending      = new MinorPrefilter(this).candidates(
+                                        minors, all(minors));
+    GraphCertificate[] certificates = certificates(minors);
+    long               found        = searchForMinors(
+                                        new ContractionState(this), minors,
+                                        certificates, pending, false,
+                                        cache, SearchBudget.current(), 0);
+    boolean[]          contains     = new boolean[minors.length];
+
+    for (int i = 0; i < minors.length; i++) {
+      contains[i] = (found & (1L << i)) != 0;
     }
 
-    Iterator edgeIterator = edges().iterator();
+    return contains;
+  }
 
-    // Try contracting each edge, then check again
-    while(edgeIterator.hasNext()) {
-      int[] edge = (int[])edgeIterator.next();
+  /**
+   * Determine the first of the provided graphs that our graph contains as
+   * a minor, in a single search.  Once a graph is found the search only
+   * goes on looking for the graphs before it, so it does no more work than
+   * searching for each graph in turn would, and usually much less.
+   *
+   * @param minors The Graphs we are comparing to our graph, at most 64.
+   * @param cache The MinorSearchCache to consult and fill, or null to
+   *              search without one.
+   * @return The index of the first graph contained as a minor, or -1 if
+   *         none of them is.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public int findFirstMinor(Graph[] minors, MinorSearchCache cache) {
+    return findFirstMinor(minors, cache, MinorEngine.CONTRACTION);
+  }
 
-      Graph newMinor = contractEdge(edge[0], edge[1]);
+  /**
+   * Determine the first of the provided graphs that our graph contains as
+   * a minor, using the given search engine.  The contraction engines
+   * search for all of the graphs at once; the branch set engine searches
+   * for each in turn, and only the answers for our graph as a whole are
+   * cached.  Either way the minors a MinorPrefilter rules out are never
+   * searched for.
+   *
+   * @param minors The Graphs we are comparing to our graph, at most 64.
+   * @param cache The MinorSearchCache to consult and fill, or null to
+   *              search without one.
+   * @param engine The MinorEngine to search with.
+   * @return The index of the first graph contained as a minor, or -1 if
+   *         none of them is.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public int findFirstMinor(Graph[] minors, MinorSearchCache cache,
+                            MinorEngine engine) {
+    long pending = new MinorPrefilter(this).candidates(minors, all(minors));
+
+    if (engine == MinorEngine.BRANCH_SET) {
+      for (long left = pending; left != 0; left &= left - 1) {
+        int i = Long.numberOfTrailingZeros(left);
 
-      if (newMinor.containsMinor(minor)) {
-        return true;
+        if (findModel(minors[i], cache)) {
+          return i;
+        }
       }
+
+      return -1;
     }
 
-    return false;
+    long found = searchForMinors(new ContractionState(this), minors,
+                                 cache == null ? null : certificates(minors),
+                                 pending, true, cache,
+                                 SearchBudget.current(),
+                                 engine == MinorEngine.PARALLEL ? SPLIT_DEPTH
+                                                                : 0);
+
+    return found == 0 ? -1 : Long.numberOfTrailingZeros(found);
+  }
+
+  /**
+   * Searches for a model of the minor with a MinorModelMatcher, consulting
+   * and filling the cache for our graph as a whole.
+   */
+  private boolean findModel(Graph minor, MinorSearchCache cache) {
+    GraphCertificate certificate      = null;
+    GraphCertificate minorCertificate = null;
+
+    if (cache != null) {
+      certificate      = canonicalCertificate();
+      minorCertificate = minor.canonicalCertificate();
+      Boolean known    = cache.lookup(certificate, minorCertificate);
+
+      if (known != null) {
+        return known.booleanValue();
+      }
+    }
+
+    boolean containsMinor = new MinorModelMatcher(this, minor).matches();
+
+    if (cache != null) {
+      cache.store(certificate, minorCertificate, containsMinor);
+    }
+
+    return containsMinor;
   }
 
   /**
@@ -252,6 +456,8 @@ public class Graph {
    * @param subGraph The graph we are testing against our own.
    * @return A boolean value indicating whether or not our graph
    *         contains the provided graph as a subgraph.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
    */
   public boolean containsSubgraph(Graph subGraph) {
     boolean containsSubgraph = false;
@@ -260,19 +466,22 @@ public class Graph {
     // in order to even be considered
     if (getSize()  >= subGraph.getSize() &&
         getOrder() >= subGraph.getOrder()) {
-      // Initialize an empty vertexMap from our graph to the subgraph
-      int[] vertexMap = new int[subGraph.order];
-      for (int i = 0; i < vertexMap.length; i++) {
-        vertexMap[i] = -1;
-      }
-
-      // Do the work
-      containsSubgraph = searchForSubgraph(subGraph, vertexMap, 0);
+      containsSubgraph = new SubgraphMatcher(this, subGraph).matches();
     }
 
     return containsSubgraph;
   }
 
+  /**
+   * Determines if the graph can be drawn in the plane without any of its
+   * edges crossing.  This runs in time linear in the size of the graph.
+   *
+   * @return A boolean value indicating whether or not we are planar.
+   */
+  public boolean isPlanar() {
+    return new PlanarityTester(getOrder()).isPlanar(this);
+  }
+
   /**
    * Determines if two graphs are isomorphic to each other.
    *
@@ -280,112 +489,307 @@ public class Graph {
    * @return A boolean value indicating whether or not we are isomorphic.
    */
   public boolean isIsomorphicTo(Graph graph) {
-    return containsSubgraph(graph)       &&
-           getSize()  == graph.getSize() &&
-           getOrder() == graph.getOrder();
+    return getOrder() == graph.getOrder() &&
+           getSize()  == graph.getSize()  &&
+           canonicalCertificate().equals(graph.canonicalCertificate());
   }
 
   /**
-   * Does the recursive work of trying to determine if a mapping from our
-   * graph to the subgraph can be found.
+   * Does the recursive work of determining which minors the graph of the
+   * state contains, by contracting each edge, up to the automorphisms of
+   * the graph, in turn and checking the result again for every minor still
+   * pending.  A minor is dropped from the search as soon as the graph
+   * becomes too small to contain it.  The contractions are made in place
+   * on the state and undone afterwards, so no graphs are allocated along
+   * the way.
    *
-   * @param subGraph The Graph that we are trying to determine if we are a
-   *                 subgraph of
-   * @param vertexMap The current mapping from our vertices to those of the
-   *                  subgraph.
-   * @param nextIndex The index we will be working with next.
-   * @return A boolean value indicating if the mapping 'so far' is a complete
-   *         mapping to the subgraph.
+   * @param state The ContractionState holding the graph searched.
+   * @param minors The Graphs we are comparing to the graph.
+   * @param minorCertificates The certificates of the minors, used for the
+   *                          cache lookups.
+   * @param pending The minors still to be searched for, one bit each.
+   * @param firstOnly Whether to stop looking for the minors after one that
+   *                  has been found.
+   * @param cache The MinorSearchCache to consult and fill, or null.
+   * @param budget The SearchBudget charged for each graph visited, or null.
+   * @param splitDepth The number of levels of contractions to search as
+   *                   parallel tasks, 0 to search on this thread alone.
+   * @return The minors of those pending that the graph contains, one bit
+   *         each.  If firstOnly is set, only the first of them is certain to
+   *         be included.
+   * @throws BudgetExhaustedException if the budget runs out.
    */
-  private boolean searchForSubgraph(Graph subGraph,
-                                    int[] vertexMap,
-                                    int   nextIndex) {
-    // We first need to verify our current map state and make sure that it
-    // is a 'possible' solution for what we know so far
-    if (!verifyPartialMapping(subGraph, vertexMap, nextIndex - 1)) {
-      return false;
+  static long searchForMinors(ContractionState   state,
+                              Graph[]            minors,
+                              GraphCertificate[] minorCertificates,
+                              long               pending,
+                              boolean            firstOnly,
+                              MinorSearchCache   cache,
+                              SearchBudget       budget,
+                              int                splitDepth) {
+    Graph graph = state.getGraph();
+
+    for (int i = 0; i < minors.length; i++) {
+      if (graph.getOrder() < minors[i].getOrder() ||
+          graph.getSize()  < minors[i].getSize()) {
+        pending &= ~(1L << i);
+      }
     }
 
-    // If we are trying to work on an index that is past our length of the
-    // the vertexMap, that means that we have a valid mapping
-    if (vertexMap.length == nextIndex) {
-      return true;
+    if (pending == 0) { return 0; }
+
+    Metrics.countMinorNode();
+
+    if (budget != null) {
+      budget.charge();
     }
 
-    // Walk through each vertex
-    for (int currentIndex = 0; currentIndex < this.order; currentIndex++) {
-      if (!containsVertex(vertexMap, currentIndex)) {
-        // Assume this vertex is correct, and then test it
-        vertexMap[nextIndex] = currentIndex;
-        if (searchForSubgraph(subGraph, vertexMap, nextIndex+1)) {
-          return true;
-        }
-        else {
-          // It wasn't correct, try the next
-          vertexMap[nextIndex] = -1;
+    GraphCertificate certificate = null;
+    long             found       = 0;
+
+    if (cache != null) {
+      certificate = graph.canonicalCertificate();
+
+      for (long left = pending; left != 0; left &= left - 1) {
+        int     i     = Long.numberOfTrailingZeros(left);
+        Boolean known = cache.lookup(certificate, minorCertificates[i]);
+
+        if (known != null) {
+          pending &= ~(1L << i);
+          found   |= known.booleanValue() ? 1L << i : 0;
         }
       }
     }
 
-    return false;
+    // The minors whose answers are worked out here, rather than looked up
+    // or given up on because an earlier minor was found
+    long searched = pending;
+
+    pending = remaining(pending, found, firstOnly);
+
+    for (long left = pending; left != 0; left &= left - 1) {
+      int i = Long.numberOfTrailingZeros(left);
+
+      if (graph.containsSubgraph(minors[i])) {
+        found   |= 1L << i;
+        pending  = remaining(pending, found, firstOnly);
+        left    &= pending | (1L << i);
+      }
+    }
+
+    // Contracting an edge will result in one less edge and one less vertex
+    // We check to see if we can afford to lose one edge and one vertex
+    long contractible = 0;
+
+    for (long left = pending; left != 0; left &= left - 1) {
+      int i = Long.numberOfTrailingZeros(left);
+
+      if (graph.getSize()  > minors[i].getSize() &&
+          graph.getOrder() > minors[i].getOrder()) {
+        contractible |= 1L << i;
+      }
+    }
+
+    // Try contracting each edge in place, then check again and undo.  Edges
+    // in the same orbit of the automorphism group contract to isomorphic
+    // graphs, so only one edge of each orbit is tried.
+    long[][] rows = contractible == 0 ? null : orbitRepresentatives(graph);
+
+    if (splitDepth > 0 && contractible != 0) {
+      found        |= forkContractions(state, minors, minorCertificates,
+                                       contractible, firstOnly, cache,
+                                       budget, splitDepth);
+      pending       = remaining(pending, found, firstOnly);
+      contractible  = 0;
+    }
+
+    for (int from = 0; from < graph.getOrder() && contractible != 0; from++) {
+      for (int to = nextBit(rows[from], from + 1);
+           to >= 0 && contractible != 0;
+           to = nextBit(rows[from], to + 1)) {
+        state.contractEdge(from, to);
+        Metrics.countContraction();
+
+        found        |= searchForMinors(state, minors, minorCertificates,
+                                        contractible, firstOnly, cache,
+                                        budget, 0);
+        pending       = remaining(pending, found, firstOnly);
+        contractible &= pending;
+
+        state.undo();
+      }
+    }
+
+    if (cache != null) {
+      // Minors given up on were not searched for fully
+      searched &= found | pending;
+
+      for (long left = searched; left != 0; left &= left - 1) {
+        int i = Long.numberOfTrailingZeros(left);
+
+        cache.store(certificate, minorCertificates[i],
+                    (found & (1L << i)) != 0);
+      }
+    }
+
+    return found;
   }
 
   /**
-   * Checks whether the current mapping that has been constructed for the
-   * graph to a possible subgraph 'is possible'.  It just confirms the
-   * in progress solution.
+   * Contracts one edge of each orbit of the graph of the state in turn and
+   * searches the results as parallel ContractionTasks, each on a copy of
+   * its own.  The tasks charge budgets forked from one for the node, which
+   * is cancelled once they have found everything the node needs.
    *
-   * @param subGraph The Graph that we are trying to determine if we are a
-   *                 subgraph of
-   * @param vertexMap The current mapping from our vertices to those of the
-   *                  subgraph.
-   * @param workingIndex The index we are working with currently.
-   * @return A boolean value indicating if the mapping 'so far' is
-   *         possible or not.
+   * @return The minors found, one bit each.
+   * @throws BudgetExhaustedException if the budget runs out.
    */
-  private boolean verifyPartialMapping(Graph subGraph,
-                                       int[] vertexMap,
-                                       int   workingIndex) {
-    boolean successfulMapping = true;
+  private static long forkContractions(ContractionState   state,
+                                       Graph[]            minors,
+                                       GraphCertificate[] minorCertificates,
+                                       long               contractible,
+                                       boolean            firstOnly,
+                                       MinorSearchCache   cache,
+                                       SearchBudget       budget,
+                                       int                splitDepth) {
+    SearchBudget          siblings = budget == null ? new SearchBudget(0, 0)
+                                                    : budget.fork();
+    AtomicLong            found    = new AtomicLong();
+    List<ContractionTask> tasks    = new ArrayList<ContractionTask>();
+    long[][]              rows     = orbitRepresentatives(state.getGraph());
 
-    if (workingIndex >= 0 && workingIndex < vertexMap.length) {
-      int      mappedFromVertex  = vertexMap[workingIndex];
-      List     connectedVertices = subGraph.connectedVertices(workingIndex);
-      Iterator verticesIterator  = connectedVertices.iterator();
+    for (int from = 0; from < state.getOrder(); from++) {
+      for (int to = nextBit(rows[from], from + 1); to >= 0;
+           to = nextBit(rows[from], to + 1)) {
+        state.contractEdge(from, to);
+        Metrics.countContraction();
 
-      while (verticesIterator.hasNext() && successfulMapping) {
-        int toVertex       = ((Integer)verticesIterator.next()).intValue();
-        int mappedToVertex = vertexMap[toVertex];
-        if (mappedToVertex >= 0) {
-	      // If the edge exists in the subgraph but not in our graph via
-	      // the proposed mapping, then we are done and this mapping doesn't
-	      // work
-          successfulMapping = this.hasEdge(mappedFromVertex, mappedToVertex);
+        tasks.add(new ContractionTask(new ContractionState(state.getGraph()),
+                                      minors, minorCertificates,
+                                      contractible, firstOnly, cache,
+                                      siblings.fork(), siblings, found,
+                                      splitDepth - 1));
+
+        state.undo();
+      }
+    }
+
+    ForkJoinTask.invokeAll(tasks);
+
+    // The tasks that gave up because they were cancelled had nothing left
+    // to find, so a failure only matters if something is still missing
+    long minorsFound = found.get();
+
+    if (remaining(contractible, minorsFound, firstOnly) != 0) {
+      for (ContractionTask task : tasks) {
+        if (task.getFailure() != null) {
+          throw task.getFailure();
         }
       }
     }
 
-    return successfulMapping;
+    return minorsFound;
   }
 
   /**
-   * Determines if the vertexMap contains the vertex provided.  It is
-   * merely a lookup into the array for the value.
+   * The minors still to be searched for once those found are known.
    *
-   * @param vertexMap The current array of integer vertices.
-   * @param vertex    The vertex to check.
-   * @return A boolean indicating whether or not the vertex was found.
+   * @param pending The minors being searched for, one bit each.
+   * @param found The minors found, one bit each.
+   * @param firstOnly Whether to stop looking for the minors after the first
+   *                  one found.
+   * @return The bits of pending still to be searched for.
    */
-  private boolean containsVertex(int[] vertexMap, int vertex) {
-    boolean containsVertex = false;
-    int     currentIndex   = 0;
+  static long remaining(long pending, long found, boolean firstOnly) {
+    pending &= ~found;
 
-    while ((currentIndex < vertexMap.length) && (!containsVertex)) {
-      containsVertex = (vertexMap[currentIndex] == vertex);
-      currentIndex++;
+    if (firstOnly && found != 0) {
+      pending &= Long.lowestOneBit(found) - 1;
     }
 
-    return containsVertex;
+    return pending;
+  }
+
+  /**
+   * One bit for each of the minors.
+   *
+   * @throws IllegalArgumentException if there are more than 64.
+   */
+  private static long all(Graph[] minors) throws IllegalArgumentException {
+    if (minors.length > 64) {
+      throw new IllegalArgumentException("At most 64 minors at once");
+    }
+
+    return minors.length == 64 ? -1L : (1L << minors.length) - 1;
+  }
+
+  /**
+   * The canonical certificates of the minors.
+   */
+  private static GraphCertificate[] certificates(Graph[] minors) {
+    GraphCertificate[] certificates = new GraphCertificate[minors.length];
+
+    for (int i = 0; i < minors.length; i++) {
+      certificates[i] = minors[i].canonicalCertificate();
+    }
+
+    return certificates;
+  }
+
+  /**
+   * One edge from each orbit of the automorphism group of the graph on its
+   * edges, the first of the orbit in edge order, as rows like the
+   * adjacency rows.  The rows of the graph itself are returned if it has
+   * no automorphisms but the identity.
+   */
+  private static long[][] orbitRepresentatives(Graph graph) {
+    List<int[]> generators = graph.canonicalLabeling().getGenerators();
+
+    if (generators.isEmpty()) {
+      return graph.data;
+    }
+
+    int      order           = graph.order;
+    long[][] representatives = new long[order][graph.words];
+    long[][] reached         = new long[order][graph.words];
+    int[]    stack           = new int[2 * graph.size];
+
+    for (int from = 0; from < order; from++) {
+      for (int to = nextBit(graph.data[from], from + 1); to >= 0;
+           to = nextBit(graph.data[from], to + 1)) {
+        if (testBit(reached[from], to)) {
+          continue;
+        }
+
+        setBit(representatives[from], to);
+        setBit(reached[from], to);
+
+        // Mark the rest of the orbit by applying the generators
+        int top = 0;
+
+        stack[top++] = from;
+        stack[top++] = to;
+
+        while (top > 0) {
+          int v = stack[--top];
+          int u = stack[--top];
+
+          for (int g = 0; g < generators.size(); g++) {
+            int[] permutation = generators.get(g);
+            int   a           = Math.min(permutation[u], permutation[v]);
+            int   b           = Math.max(permutation[u], permutation[v]);
+
+            if (!testBit(reached[a], b)) {
+              setBit(reached[a], b);
+              stack[top++] = a;
+              stack[top++] = b;
+            }
+          }
+        }
+      }
+    }
+
+    return representatives;
   }
 
   /**
@@ -399,7 +803,20 @@ public class Graph {
   private void setEdge(int fromVertex, int toVertex, boolean value) {
     validateEdge(fromVertex, toVertex);
 
-    data[fromVertex][toVertex] = data[toVertex][fromVertex] = value;
+    if (testBit(data[fromVertex], toVertex) != value) {
+      canonicalLabeling = null;
+      edits++;
+
+      if (value) {
+        setBit(data[fromVertex], toVertex);
+        setBit(data[toVertex], fromVertex);
+        size++;
+      } else {
+        clearBit(data[fromVertex], toVertex);
+        clearBit(data[toVertex], fromVertex);
+        size--;
+      }
+    }
   }
 
   /**
@@ -411,7 +828,37 @@ public class Graph {
   private boolean getEdge(int fromVertex, int toVertex) {
     validateEdge(fromVertex, toVertex);
 
-    return data[fromVertex][toVertex];
+    return testBit(data[fromVertex], toVertex);
+  }
+
+  /**
+   * Adds every edge of the source graph to this graph after relabeling its
+   * vertices.  Edges touching a vertex labeled -1 are thrown out, as are
+   * edges whose two vertices receive the same label.  The labels are known
+   * to be valid so no validation is performed.
+   *
+   * @param source    The graph whose edges are copied.
+   * @param newLabels The label in this graph for each vertex of the source.
+   */
+  private void addRelabeledEdges(Graph source, int[] newLabels) {
+    for (int from = 0; from < source.order; from++) {
+      int    newFrom = newLabels[from];
+      long[] row     = source.data[from];
+
+      if (newFrom < 0) {
+        continue;
+      }
+
+      for (int to = nextBit(row, from + 1); to >= 0; to = nextBit(row, to + 1)) {
+        int newTo = newLabels[to];
+
+        if (newTo >= 0 && newTo != newFrom && !testBit(data[newFrom], newTo)) {
+          setBit(data[newFrom], newTo);
+          setBit(data[newTo], newFrom);
+          size++;
+        }
+      }
+    }
   }
 
   /**
@@ -440,13 +887,160 @@ public class Graph {
   }
 
   /**
-   * Determines the maximum number of edges that are possible with the given
-   * order.  This is used to know how bit to create Arrays.
+   * Create a copy of the graph under a new name.
    *
-   * @return An integer representing the max possible size.
+   * @param newName The name of the copy.
+   * @return A new Graph with the same edges.
    */
-  private int maxSize() {
-    return (getOrder() * (getOrder() - 1)) / 2;
+  Graph copy(String newName) {
+    Graph copy      = new Graph(newName, order);
+    int[] newLabels = new int[order];
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      newLabels[vertex] = vertex;
+    }
+
+    copy.addRelabeledEdges(this, newLabels);
+
+    return copy;
   }
-}
 
+  /**
+   * Takes note that the shared rows of the graph have been changed.
+   *
+   * @param newOrder The number of vertices now in use.
+   * @param newSize The number of edges now.
+   */
+  void reshape(int newOrder, int newSize) {
+    order             = newOrder;
+    size              = newSize;
+    canonicalLabeling = null;
+    edits++;
+  }
+
+  /**
+   * The number of times the edges of the graph have changed, so that what
+   * was worked out about the graph can be told apart from what was worked
+   * out about it before a change.
+   *
+   * @return An integer count of changes.
+   */
+  int edits() {
+    return edits;
+  }
+
+  /**
+   * The rows of the adjacency matrix, for the search engines in this
+   * package.  The rows are shared with the graph and must not be modified.
+   *
+   * @return An array of packed rows, one per vertex.
+   */
+  long[][] adjacencyRows() {
+    return data;
+  }
+
+  /**
+   * Determines whether the bit for the vertex is set in a row.
+   */
+  private static boolean testBit(long[] row, int vertex) {
+    return (row[vertex >>> 6] & (1L << vertex)) != 0;
+  }
+
+  /**
+   * Sets the bit for the vertex in a row.
+   */
+  private static void setBit(long[] row, int vertex) {
+    row[vertex >>> 6] |= 1L << vertex;
+  }
+
+  /**
+   * Clears the bit for the vertex in a row.
+   */
+  private static void clearBit(long[] row, int vertex) {
+    row[vertex >>> 6] &= ~(1L << vertex);
+  }
+
+  /**
+   * Finds the first set bit in a row at or after the starting vertex.
+   *
+   * @return The index of the bit, or -1 if there is none.
+   */
+  private static int nextBit(long[] row, int startVertex) {
+    int word = startVertex >>> 6;
+
+    if (word >= row.length) {
+      return -1;
+    }
+
+    long bits = row[word] & (-1L << startVertex);
+
+    while (bits == 0) {
+      if (++word == row.length) {
+        return -1;
+      }
+      bits = row[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * A cursor over the edges of the graph.  Each edge is visited once with
+   * from() &lt; to(), ordered by from() and then by to().  Nothing is
+   * allocated while walking the edges, for example:
+   *
+   * <pre>
+   *   EdgeIterator edge = graph.edgeIterator();
+   *   while (edge.next()) { ... edge.from() ... edge.to() ... }
+   * </pre>
+   */
+  public class EdgeIterator {
+    private int from = 0;
+    private int to   = -1;
+
+    /**
+     * Advances to the next edge.
+     *
+     * @return A boolean indicating whether there was another edge.
+     */
+    public boolean next() {
+      while (from < order) {
+        to = nextBit(data[from], to < from ? from + 1 : to + 1);
+
+        if (to >= 0) {
+          return true;
+        }
+
+        from++;
+      }
+
+      return false;
+    }
+
+    /**
+     * The lower vertex of the current edge.
+     *
+     * @return An integer vertex.
+     */
+    public int from() {
+      return from;
+    }
+
+    /**
+     * The higher vertex of the current edge.
+     *
+     * @return An integer vertex.
+     */
+    public int to() {
+      return to;
+    }
+
+    /**
+     * Moves the cursor back to before the first edge so it can be reused.
+     */
+    public void reset() {
+      from = 0;
+      to   = -1;
+    }
+  }
+}
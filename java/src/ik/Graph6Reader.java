@@ -0,0 +1,312 @@
+package ik;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads graphs in nauty's graph6 format, one graph per line, as written by
+ * geng.  The lines are decoded straight from the bytes of a channel into
+ * the adjacency of each Graph, without building Strings for the lines or
+ * the edges.  Graphs are named by their position in the input, starting
+ * at 1, which matches the numbering showg gives the same graphs.
+ *
+ * In graph6 every byte holds six bits, offset by 63 to make it printable.
+ * A line starts with the order (one byte below 126, or 126 followed by
+ * three or, after a second 126, six bytes) and continues with the upper
+ * triangle of the adjacency matrix in column order: (0,1), (0,2), (1,2),
+ * (0,3) and so on, most significant bit first.
+ */
+public class Graph6Reader implements GraphSource {
+  private static final byte[] HEADER         = ">>graph6<<".getBytes();
+  private static final int    BIAS           = 63;
+  private static final int    LONG_ORDER     = 126;
+  private static final int    INITIAL_BUFFER = 1 << 16;
+
+  private final ReadableByteChannel channel;
+  private       ByteBuffer          buffer;
+  private       byte[]              bytes;
+  private       int                 lineStart;
+  private       int                 lineEnd;
+  private       boolean             endOfInput;
+  private       long                count;
+  private       long                offset;
+
+  /**
+   * Creates a new Graph6Reader.
+   *
+   * @param channel The channel the graphs are read from.
+   */
+  public Graph6Reader(ReadableByteChannel channel) {
+    this(channel, 0, 0);
+  }
+
+  /**
+   * Creates a new Graph6Reader over a channel that has already been moved
+   * into the input, such as to resume a run.
+   *
+   * @param channel The channel the graphs are read from.
+   * @param position The byte offset of the channel in the input.
+   * @param count The number of graphs before that offset, so that the
+   *              graphs read are named by their position in the input.
+   */
+  public Graph6Reader(ReadableByteChannel channel, long position,
+                      long count) {
+    this.channel    = channel;
+    this.buffer     = ByteBuffer.allocate(INITIAL_BUFFER);
+    this.bytes      = buffer.array();
+    this.lineStart  = 0;
+    this.lineEnd    = 0;
+    this.endOfInput = false;
+    this.count      = count;
+    this.offset     = position;
+
+    // Nothing has been read yet
+    buffer.flip();
+  }
+
+  /**
+   * Determines whether the start of some input looks like graph6 rather
+   * than text: either it has the optional graph6 header, or its first line
+   * is made only of graph6 bytes.  Text from showg always has a space on
+   * its first line, which graph6 never does.
+   *
+   * @param head The first bytes of the input.
+   * @param length The number of bytes in head.
+   * @return A boolean indicating whether the input is graph6.
+   */
+  public static boolean isGraph6(byte[] head, int length) {
+    if (startsWith(head, 0, length, HEADER)) {
+      return true;
+    }
+
+    int end = 0;
+    while (end < length && head[end] != '\n' && head[end] != '\r') {
+      if (head[end] < BIAS || head[end] > LONG_ORDER) {
+        return false;
+      }
+      end++;
+    }
+
+    return end > 0;
+  }
+
+  /**
+   * Reads the next graph.
+   *
+   * @return The new Graph that is read, null if the end has been reached.
+   * @throws IOException if there is an IO issue.
+   * @throws IllegalArgumentException if there is a problem with the
+   *         graph data.
+   */
+  public Graph next() throws IOException,
+                             IllegalArgumentException {
+    while (nextLine()) {
+      int start = lineStart;
+      int end   = lineEnd;
+
+      if (end > start && bytes[end - 1] == '\r') {
+        end--;
+      }
+
+      if (startsWith(bytes, start, end, HEADER)) {
+        start += HEADER.length;
+      }
+
+      // Skip any blank lines
+      if (start < end) {
+        count++;
+        return decode(start, end);
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * The byte offset just past the line of the last graph read.
+   *
+   * @return A long position.
+   */
+  public long getPosition() {
+    return offset + Math.min(lineEnd + 1, buffer.limit());
+  }
+
+  /**
+   * Closes the underlying channel.
+   *
+   * @throws IOException if there is an IO issue.
+   */
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Decodes the graph on the line between start and end.
+   */
+  private Graph decode(int start, int end) throws IllegalArgumentException {
+    int  position = start;
+    long order    = sixBits(position++, end);
+
+    if (order == LONG_ORDER - BIAS) {
+      int digits = 3;
+
+      if (position < end && bytes[position] == LONG_ORDER) {
+        position++;
+        digits = 6;
+      }
+
+      order = 0;
+      for (int i = 0; i < digits; i++) {
+        order = (order << 6) | sixBits(position++, end);
+      }
+    }
+
+    if (order > Integer.MAX_VALUE ||
+        end - position != (order * (order - 1) / 2 + 5) / 6) {
+      throw malformed();
+    }
+
+    Graph graph = new Graph(Long.toString(count), (int)order);
+    int   from  = 0;
+    int   to    = 1;
+
+    for (; position < end; position++) {
+      int value = sixBits(position, end);
+
+      // Most bytes of a sparse graph are empty, so step over them whole
+      if (value == 0) {
+        from += 6;
+        while (from >= to && to < order) {
+          from -= to;
+          to++;
+        }
+        continue;
+      }
+
+      for (int bit = 5; bit >= 0 && to < order; bit--) {
+        if ((value & (1 << bit)) != 0) {
+          graph.addEdge(from, to);
+        }
+
+        if (++from == to) {
+          from = 0;
+          to++;
+        }
+      }
+    }
+
+    return graph;
+  }
+
+  /**
+   * The six bits held by the byte at the position.
+   */
+  private int sixBits(int position, int end) throws IllegalArgumentException {
+    if (position >= end) {
+      throw malformed();
+    }
+
+    int value = bytes[position] - BIAS;
+    if (value < 0 || value > 63) {
+      throw malformed();
+    }
+
+    return value;
+  }
+
+  /**
+   * Finds the next line in the buffer, reading from the channel as
+   * needed.  The final line need not end with a newline.
+   *
+   * @return A boolean indicating whether there is another line.
+   */
+  private boolean nextLine() throws IOException {
+    int scan = lineEnd < buffer.limit() ? lineEnd + 1 : lineEnd;
+
+    if (lineEnd < buffer.limit()) {
+      // Step past the newline that ended the last line
+      lineStart = scan;
+    } else {
+      lineStart = lineEnd;
+    }
+
+    while (true) {
+      while (scan < buffer.limit()) {
+        if (bytes[scan] == '\n') {
+          lineEnd = scan;
+          return true;
+        }
+        scan++;
+      }
+
+      if (endOfInput) {
+        lineEnd = buffer.limit();
+        return lineStart < lineEnd;
+      }
+
+      scan -= lineStart;
+      fill();
+    }
+  }
+
+  /**
+   * Moves the current partial line to the front of the buffer, growing the
+   * buffer if the line fills it, and reads more bytes after it.
+   */
+  private void fill() throws IOException {
+    int remaining = buffer.limit() - lineStart;
+
+    if (remaining == bytes.length) {
+      ByteBuffer larger = ByteBuffer.allocate(bytes.length * 2);
+      System.arraycopy(bytes, lineStart, larger.array(), 0, remaining);
+      buffer = larger;
+      bytes  = larger.array();
+    } else {
+      System.arraycopy(bytes, lineStart, bytes, 0, remaining);
+    }
+
+    offset   += lineStart;
+    lineStart = 0;
+    lineEnd   = 0;
+    buffer.limit(bytes.length);
+    buffer.position(remaining);
+
+    int read = 0;
+    while (read == 0) {
+      read = channel.read(buffer);
+    }
+
+    if (read < 0) {
+      endOfInput = true;
+    }
+
+    buffer.flip();
+  }
+
+  /**
+   * An exception for a line that is not valid graph6.
+   */
+  private IllegalArgumentException malformed() {
+    return new IllegalArgumentException("Malformed graph6 data for graph " +
+                                        count);
+  }
+
+  /**
+   * Determines whether the bytes between start and end begin with prefix.
+   */
+  private static boolean startsWith(byte[] bytes, int start, int end,
+                                    byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,168 @@
+package ik;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact, immutable description of the edges of a graph which can be
+ * used as a hash key.  The upper triangle of the adjacency matrix is packed
+ * into an array of longs, row by row, so two certificates are equal exactly
+ * when the graphs they were made from have the same order and the same
+ * edges under the same vertex labels.
+ */
+public final class GraphCertificate {
+  private final int    order;
+  private final long[] bits;
+  private final int    hash;
+
+  /**
+   * Creates the certificate for the graph as it is currently labeled.
+   *
+   * @param graph The graph to describe.
+   */
+  public GraphCertificate(Graph graph) {
+    this(graph.getOrder(), pack(graph));
+  }
+
+  /**
+   * Creates a certificate from an already packed upper triangle.
+   *
+   * @param order The number of vertices.
+   * @param bits  The packed upper triangle of the adjacency matrix.
+   */
+  GraphCertificate(int order, long[] bits) {
+    this.order = order;
+    this.bits  = bits;
+    this.hash  = 31 * order + Arrays.hashCode(bits);
+  }
+
+  /**
+   * The number of vertices of the graph this certificate describes.
+   *
+   * @return An integer order.
+   */
+  public int getOrder() {
+    return order;
+  }
+
+  /**
+   * The number of longs needed to pack the upper triangle of a graph.
+   *
+   * @param order The number of vertices.
+   * @return An integer number of longs.
+   */
+  static int packedLength(int order) {
+    return (int)(((long)order * (order - 1) / 2 + 63) >>> 6);
+  }
+
+  /**
+   * The position of the edge (from, to), where from &lt; to, in the packed
+   * upper triangle.
+   */
+  static int packedIndex(int order, int from, int to) {
+    return from * (2 * order - from - 1) / 2 + (to - from - 1);
+  }
+
+  /**
+   * A 64 bit hash of the certificate, for tables larger than a hashCode
+   * can address well.
+   *
+   * @return A long hash.
+   */
+  public long longHash() {
+    long hash = 0x9E3779B97F4A7C15L * (order + 1);
+
+    for (int i = 0; i < bits.length; i++) {
+      hash ^= bits[i];
+      hash *= 0xBF58476D1CE4E5B9L;
+      hash ^= hash >>> 31;
+    }
+
+    return hash;
+  }
+
+  /**
+   * Writes the certificate so that it can be read back with readFrom.
+   *
+   * @param out The DataOutput to write to.
+   * @throws IOException if there is an IO error.
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(order);
+    out.writeInt(bits.length);
+
+    for (int i = 0; i < bits.length; i++) {
+      out.writeLong(bits[i]);
+    }
+  }
+
+  /**
+   * Reads a certificate written by writeTo.
+   *
+   * @param in The DataInput to read from.
+   * @return The GraphCertificate that was read.
+   * @throws IOException if there is an IO error.
+   */
+  public static GraphCertificate readFrom(DataInput in) throws IOException {
+    int order  = in.readInt();
+    int length = in.readInt();
+
+    if (order < 0 || length != packedLength(order)) {
+      throw new IOException("Malformed certificate for order " + order);
+    }
+
+    long[] bits = new long[length];
+
+    for (int i = 0; i < bits.length; i++) {
+      bits[i] = in.readLong();
+    }
+
+    return new GraphCertificate(order, bits);
+  }
+
+  /**
+   * An estimate of the number of bytes this certificate occupies in memory.
+   *
+   * @return An integer number of bytes.
+   */
+  int footprint() {
+    return 48 + 8 * bits.length;
+  }
+
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof GraphCertificate)) {
+      return false;
+    }
+
+    GraphCertificate certificate = (GraphCertificate)other;
+
+    return hash  == certificate.hash  &&
+           order == certificate.order &&
+           Arrays.equals(bits, certificate.bits);
+  }
+
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Packs the upper triangle of the graph's adjacency matrix.
+   */
+  private static long[] pack(Graph graph) {
+    int    order = graph.getOrder();
+    long[] bits  = new long[packedLength(order)];
+
+    Graph.EdgeIterator edge = graph.edgeIterator();
+    while (edge.next()) {
+      int index = packedIndex(order, edge.from(), edge.to());
+      bits[index >>> 6] |= 1L << index;
+    }
+
+    return bits;
+  }
+}
@@ -1,8 +1,17 @@
 package ik;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * These are the graph constants that are used in various classification
- * tests.
+ * tests, along with the constraints that break their symmetry when they
+ * are searched for as subgraphs.
  *
  * Note: There are more graphs which could be added here
  *         Foisy identified H, G15, H15, J14, J'14
@@ -19,6 +28,12 @@ public class GraphConstants
   public static final Graph F9;
   public static final Graph A9;
   public static final Graph B9;
+
+  // The automorphism groups larger than this are not broken up
+  private static final int MAX_GROUP_SIZE = 1 << 16;
+
+  private static final Map<Graph, long[]> SYMMETRY_CONSTRAINTS =
+                         new IdentityHashMap<Graph, long[]>();
   
   static {
     // Create K5
@@ -195,5 +210,125 @@ public class GraphConstants
     B9.addEdge(5,6);
     B9.addEdge(5,7);
     B9.addEdge(5,8);
+
+    Graph[] constants = {K5, K7, K33, K3311, H8, H9, F9, A9, B9};
+
+    for (int i = 0; i < constants.length; i++) {
+      SYMMETRY_CONSTRAINTS.put(constants[i],
+                               computeSymmetryConstraints(constants[i]));
+    }
+  }
+
+  /**
+   * The constraints which break the symmetry of one of the constants.
+   * Any embedding of the graph can be turned into one which maps u to a
+   * lesser host vertex than w, for every bit w of constraints[u], by
+   * following it with an automorphism of the graph, so a subgraph search
+   * only needs to try the embeddings which keep the constraints.
+   *
+   * @param pattern The graph searched for.
+   * @return For each vertex u, the vertices whose images must be greater
+   *         than that of u, one bit each; null if the graph is not one of
+   *         the constants.
+   */
+  public static long[] symmetryConstraints(Graph pattern) {
+    return SYMMETRY_CONSTRAINTS.get(pattern);
+  }
+
+  /**
+   * Works out the symmetry constraints of a graph from its automorphism
+   * group, as Grochow and Kellis do: a vertex v in the largest orbit must
+   * map below each other vertex of its orbit, then the same is done for
+   * the automorphisms that fix v, and so on until only the identity is
+   * left.  A graph with more than MAX_GROUP_SIZE automorphisms, or more
+   * than 64 vertices, is given no constraints.
+   *
+   * @param graph The graph.
+   * @return The constraints, in the form of symmetryConstraints.
+   */
+  static long[] computeSymmetryConstraints(Graph graph) {
+    int         order       = graph.getOrder();
+    long[]      constraints = new long[order];
+    List<int[]> group       = automorphisms(graph);
+
+    if (order > 64 || group == null) {
+      return constraints;
+    }
+
+    while (group.size() > 1) {
+      // Find the vertex with the largest orbit
+      long[] orbits = new long[order];
+      int    vertex = -1;
+
+      for (int v = 0; v < order; v++) {
+        for (int i = 0; i < group.size(); i++) {
+          orbits[v] |= 1L << group.get(i)[v];
+        }
+
+        if (vertex < 0 ||
+            Long.bitCount(orbits[v]) > Long.bitCount(orbits[vertex])) {
+          vertex = v;
+        }
+      }
+
+      constraints[vertex] |= orbits[vertex] & ~(1L << vertex);
+
+      // Go on with the automorphisms that fix it
+      List<int[]> stabilizer = new ArrayList<int[]>();
+
+      for (int i = 0; i < group.size(); i++) {
+        if (group.get(i)[vertex] == vertex) {
+          stabilizer.add(group.get(i));
+        }
+      }
+
+      group = stabilizer;
+    }
+
+    return constraints;
+  }
+
+  /**
+   * Lists every automorphism of the graph, by closing the generators found
+   * by the CanonicalLabeler under composition.
+   *
+   * @return The List of permutations, or null if there are more than
+   *         MAX_GROUP_SIZE of them.
+   */
+  private static List<int[]> automorphisms(Graph graph) {
+    int         order      = graph.getOrder();
+    List<int[]> generators = CanonicalLabeler.label(graph).getGenerators();
+    List<int[]> group      = new ArrayList<int[]>();
+    Set<String> seen       = new HashSet<String>();
+    int[]       identity   = new int[order];
+
+    for (int v = 0; v < order; v++) {
+      identity[v] = v;
+    }
+
+    group.add(identity);
+    seen.add(Arrays.toString(identity));
+
+    for (int next = 0; next < group.size(); next++) {
+      int[] element = group.get(next);
+
+      for (int g = 0; g < generators.size(); g++) {
+        int[] generator = generators.get(g);
+        int[] product   = new int[order];
+
+        for (int v = 0; v < order; v++) {
+          product[v] = generator[element[v]];
+        }
+
+        if (seen.add(Arrays.toString(product))) {
+          if (group.size() == MAX_GROUP_SIZE) {
+            return null;
+          }
+          group.add(product);
+        }
+      }
+    }
+
+    return group;
   }
 }
\ No newline at end of file
@@ -0,0 +1,513 @@
+package ik;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates the connected graphs of a given order, one of each isomorphism
+ * class, in process, so that they can be classified as they are made
+ * rather than written to a file by nauty's geng and read back.
+ *
+ * The graphs are grown one edge at a time by canonical augmentation.  A
+ * graph is extended only by one non-edge from each orbit of its
+ * automorphism group, and an extension is kept only if the new edge is in
+ * the orbit of the extension's canonical last edge: among the edges with
+ * the greatest degree invariant, the one whose endpoints come last in the
+ * canonical labeling.  Every graph then has exactly one parent, so each
+ * isomorphism class is made exactly once without remembering any of the
+ * graphs made.  Usually the invariant alone settles whether an extension
+ * is kept, and only the rest need canonical labeling.
+ *
+ * All graphs of the order are grown, since a connected graph may have
+ * disconnected parents, but only the connected ones with the requested
+ * number of edges are returned.  Like geng, the graphs can be split into
+ * mod shards, of which this generator returns shard res.  Every shard
+ * grows the graphs a level of edges at a time up to the split, the first
+ * level with SPLIT_GRAPHS graphs for each shard, and deals the graphs up
+ * to and including the split out to the shards in turn.  Each shard then
+ * grows only the graphs at the split that are its own.  A few graphs at a
+ * shallow level have most of the graphs under them, so the split is deep
+ * enough that each shard gets many graphs there and these even out.  The
+ * graphs of shard res are named res + 1, res + 1 + mod, res + 1 + 2 * mod
+ * and so on, so the names of the shards never collide, and without shards
+ * the graphs are named 1, 2, 3 and so on.
+ */
+public class GraphGenerator implements GraphSource {
+  // The graphs are dealt out to the shards at the fewest edges at which
+  // there are this many graphs for each shard
+  private static final int SPLIT_GRAPHS = 4096;
+
+  private final int          order;
+  private final int          minEdges;
+  private final int          maxEdges;
+  private final int          res;
+  private final int          mod;
+  private final int[][]      pairIndex;
+  private final int[]        pairFrom;
+  private final int[]        pairTo;
+  private final int[]        parents;
+  private final int[]        degrees;
+  private final Deque<Frame> stack;
+  private final Deque<Graph> ready;
+  private final Deque<Graph> roots;
+  private       boolean      started;
+  private       long         count;
+
+  /**
+   * A graph on the path from the empty graph to the graph being extended,
+   * with the non-edges it is still to be extended by.
+   */
+  private static final class Frame {
+    private final Graph graph;
+    private final int[] extensions;
+    private       int   next;
+
+    Frame(Graph graph, int[] extensions) {
+      this.graph      = graph;
+      this.extensions = extensions;
+      this.next       = 0;
+    }
+  }
+
+  /**
+   * Creates a generator for every connected graph of the order.
+   *
+   * @param order The number of vertices.
+   */
+  public GraphGenerator(int order) {
+    this(order, 0, order * (order - 1) / 2, 0, 1);
+  }
+
+  /**
+   * Creates a generator for one shard of the connected graphs of the order
+   * with a bounded number of edges.
+   *
+   * @param order The number of vertices.
+   * @param minEdges The fewest edges a graph may have.
+   * @param maxEdges The most edges a graph may have.
+   * @param res The shard to generate, from 0 to mod - 1.
+   * @param mod The number of shards.
+   * @throws IllegalArgumentException if the bounds or shard are invalid.
+   */
+  public GraphGenerator(int order, int minEdges, int maxEdges,
+                        int res, int mod) throws IllegalArgumentException {
+    int pairs = order * (order - 1) / 2;
+
+    if (order < 1 || minEdges < 0 || maxEdges > pairs ||
+        minEdges > maxEdges || mod < 1 || res < 0 || res >= mod) {
+      throw new IllegalArgumentException("Invalid generator parameters");
+    }
+
+    this.order      = order;
+    this.minEdges   = minEdges;
+    this.maxEdges   = maxEdges;
+    this.res        = res;
+    this.mod        = mod;
+    this.pairIndex  = new int[order][order];
+    this.pairFrom   = new int[pairs];
+    this.pairTo     = new int[pairs];
+    this.parents    = new int[pairs];
+    this.degrees    = new int[order];
+    this.stack      = new ArrayDeque<Frame>();
+    this.ready      = new ArrayDeque<Graph>();
+    this.roots      = new ArrayDeque<Graph>();
+    this.started    = false;
+    this.count      = 0;
+
+    for (int to = 0, pair = 0; to < order; to++) {
+      for (int from = 0; from < to; from++, pair++) {
+        pairIndex[from][to] = pair;
+        pairIndex[to][from] = pair;
+        pairFrom[pair]      = from;
+        pairTo[pair]        = to;
+      }
+    }
+  }
+
+  /**
+   * The main method, which writes the graphs in the text format of
+   * "showg -eF -l0" that the other tools read.
+   */
+  public static void main(String[] args) throws Exception {
+    GraphGenerator generator = null;
+
+    try {
+      String edges    = null;
+      String shard    = null;
+      int    argIndex = 0;
+
+      while (argIndex < args.length - 1) {
+        String option = args[argIndex++];
+
+        if (option.equals("-e")) {
+          edges = args[argIndex++];
+        } else if (option.equals("-r")) {
+          shard = args[argIndex++];
+        } else {
+          throw new IllegalArgumentException(option);
+        }
+      }
+
+      if (argIndex == args.length - 1) {
+        generator = create(Integer.parseInt(args[argIndex]), edges, shard);
+      }
+    } catch (IllegalArgumentException e) {
+      generator = null;
+    }
+
+    if (generator == null) {
+      System.out.println("usage: java ik.GraphGenerator [-e min:max] " +
+                         "[-r res/mod] <order>");
+      System.out.println("  -e  Only the graphs with from min to max edges");
+      System.out.println("  -r  Only shard res of mod shards, res < mod");
+      System.exit(0);
+    }
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+                                    1 << 16);
+
+    for (Graph graph = generator.next(); graph != null;
+         graph = generator.next()) {
+      out.write("Graph " + graph.getName() + ", order " +
+                graph.getOrder() + ".\n");
+      out.write(graph.getOrder() + " " + graph.getSize() + "\n");
+
+      Graph.EdgeIterator edge = graph.edgeIterator();
+      for (boolean first = true; edge.next(); first = false) {
+        out.write((first ? "" : "  ") + edge.from() + " " + edge.to());
+      }
+      out.write("\n\n");
+    }
+    out.close();
+  }
+
+  /**
+   * Creates a generator from the bounds and shard as written on a command
+   * line.
+   *
+   * @param order The number of vertices.
+   * @param edges The edge bounds as "min:max", or null for no bounds.
+   * @param shard The shard as "res/mod", or null for every graph.
+   * @return The new GraphGenerator.
+   * @throws IllegalArgumentException if the bounds or shard are invalid.
+   */
+  public static GraphGenerator create(int order, String edges, String shard)
+                                      throws IllegalArgumentException {
+    int[] bounds = edges == null ? new int[] {0, order * (order - 1) / 2}
+                                 : split(edges, ':');
+    int[] parts  = shard == null ? new int[] {0, 1}
+                                 : split(shard, '/');
+
+    return new GraphGenerator(order, bounds[0], bounds[1], parts[0], parts[1]);
+  }
+
+  /**
+   * The number of graphs generated so far.
+   *
+   * @return A long count.
+   */
+  public long getPosition() {
+    return count;
+  }
+
+  /**
+   * Generates the next graph.
+   *
+   * @return The next Graph, or null once every graph has been generated.
+   */
+  public Graph next() {
+    if (!started) {
+      started = true;
+      deal();
+    }
+
+    if (!ready.isEmpty()) {
+      return ready.poll();
+    }
+
+    while (!stack.isEmpty() || !roots.isEmpty()) {
+      if (stack.isEmpty()) {
+        Graph graph = visit(roots.poll());
+
+        if (graph != null) {
+          return graph;
+        }
+        continue;
+      }
+
+      Frame frame = stack.peek();
+
+      if (frame.next == frame.extensions.length) {
+        stack.pop();
+        continue;
+      }
+
+      int   pair  = frame.extensions[frame.next++];
+      Graph child = frame.graph.copy("");
+      child.addEdge(pairFrom[pair], pairTo[pair]);
+
+      if (isCanonicalExtension(child, pair)) {
+        Graph graph = visit(child);
+
+        if (graph != null) {
+          return graph;
+        }
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Nothing to release.
+   */
+  public void close() {
+  }
+
+  /**
+   * Splits "a:b" into the two integers a and b.
+   */
+  private static int[] split(String value, char separator)
+                            throws IllegalArgumentException {
+    int at = value.indexOf(separator);
+
+    if (at < 0) {
+      throw new IllegalArgumentException("Expected " + separator + " in " +
+                                         value);
+    }
+
+    return new int[] {Integer.parseInt(value.substring(0, at)),
+                      Integer.parseInt(value.substring(at + 1))};
+  }
+
+  /**
+   * Grows the graphs a level at a time up to the split and deals them out
+   * to the shards: the graphs of this shard before the split are made
+   * ready to be returned, and those at the split kept to be grown.  The
+   * split is no deeper than the most edges wanted, nor than half of the
+   * pairs, past which the levels only get smaller.  Without shards the
+   * split is at the empty graph.
+   */
+  private void deal() {
+    int         half  = order * (order - 1) / 4;
+    List<Graph> level = new ArrayList<Graph>();
+    long        dealt = 0;
+
+    level.add(new Graph("", order));
+
+    for (int edges = 0; mod > 1 && edges < maxEdges && edges < half &&
+                        level.size() < (long)SPLIT_GRAPHS * mod; edges++) {
+      List<Graph> next = new ArrayList<Graph>();
+
+      for (Graph graph : level) {
+        if (dealt++ % mod == res) {
+          Graph wanted = name(graph);
+
+          if (wanted != null) {
+            ready.add(wanted);
+          }
+        }
+
+        int[] extensions = extensions(graph);
+
+        for (int i = 0; i < extensions.length; i++) {
+          Graph child = graph.copy("");
+          child.addEdge(pairFrom[extensions[i]], pairTo[extensions[i]]);
+
+          if (isCanonicalExtension(child, extensions[i])) {
+            next.add(child);
+          }
+        }
+      }
+
+      level = next;
+    }
+
+    for (Graph graph : level) {
+      if (dealt++ % mod == res) {
+        roots.add(graph);
+      }
+    }
+  }
+
+  /**
+   * Visits a newly made graph of this shard: pushes it to be extended and
+   * names a copy of it to be returned if it is wanted.
+   *
+   * @param graph The graph made.
+   * @return The named copy of the graph to return, or null.
+   */
+  private Graph visit(Graph graph) {
+    if (graph.getSize() < maxEdges) {
+      stack.push(new Frame(graph, extensions(graph)));
+    }
+
+    return name(graph);
+  }
+
+  /**
+   * Names a copy of a graph of this shard if it is wanted: if it is
+   * connected and has enough edges.
+   *
+   * @param graph The graph made.
+   * @return The named copy of the graph, or null.
+   */
+  private Graph name(Graph graph) {
+    if (graph.getSize() < minEdges || !isConnected(graph)) {
+      return null;
+    }
+
+    return graph.copy(Long.toString(count++ * mod + res + 1));
+  }
+
+  /**
+   * Determines whether the graph was made from its canonical parent: that
+   * is, whether the edge last added is in the orbit of the canonical last
+   * edge.
+   *
+   * @param graph The graph made.
+   * @param pair The pair index of the edge last added.
+   * @return A boolean indicating whether the graph should be kept.
+   */
+  private boolean isCanonicalExtension(Graph graph, int pair) {
+    for (int vertex = 0; vertex < order; vertex++) {
+      degrees[vertex] = graph.degree(vertex);
+    }
+
+    long added = invariant(pairFrom[pair], pairTo[pair]);
+    long best  = added;
+    int  ties  = 0;
+
+    Graph.EdgeIterator edge = graph.edgeIterator();
+    while (edge.next()) {
+      long invariant = invariant(edge.from(), edge.to());
+
+      if (invariant > best) {
+        return false;
+      } else if (invariant == best) {
+        ties++;
+      }
+    }
+
+    // Only the edge added has the greatest invariant
+    if (ties == 1) {
+      return true;
+    }
+
+    CanonicalLabeler.Result labeled  = CanonicalLabeler.label(graph);
+    int[]                   labeling = labeled.getLabeling();
+    int                     last     = -1;
+    int                     lastKey  = -1;
+
+    for (edge.reset(); edge.next();) {
+      if (invariant(edge.from(), edge.to()) == best) {
+        int first  = labeling[edge.from()];
+        int second = labeling[edge.to()];
+        int key    = Math.max(first, second) * order + Math.min(first, second);
+
+        if (key > lastKey) {
+          last    = pairIndex[edge.from()][edge.to()];
+          lastKey = key;
+        }
+      }
+    }
+
+    pairOrbits(labeled.getGenerators());
+    return find(pair) == find(last);
+  }
+
+  /**
+   * A degree invariant of an edge of the graph whose degrees are in
+   * degrees: the sum of the degrees of its ends, then the lesser degree.
+   */
+  private long invariant(int from, int to) {
+    return ((long)(degrees[from] + degrees[to]) << 32) |
+           Math.min(degrees[from], degrees[to]);
+  }
+
+  /**
+   * One non-edge from each orbit of the automorphism group of the graph,
+   * as pair indices.
+   */
+  private int[] extensions(Graph graph) {
+    pairOrbits(CanonicalLabeler.label(graph).getGenerators());
+
+    int[] extensions = new int[parents.length - graph.getSize()];
+    int   found      = 0;
+
+    for (int pair = 0; pair < parents.length; pair++) {
+      if (parents[pair] == pair && !graph.hasEdge(pairFrom[pair], pairTo[pair])) {
+        extensions[found++] = pair;
+      }
+    }
+
+    return Arrays.copyOf(extensions, found);
+  }
+
+  /**
+   * Joins the pairs of vertices into the orbits of the group generated by
+   * the permutations, leaving in parents a forest whose roots are the least
+   * pair of each orbit.
+   */
+  private void pairOrbits(List<int[]> generators) {
+    for (int pair = 0; pair < parents.length; pair++) {
+      parents[pair] = pair;
+    }
+
+    for (int[] permutation : generators) {
+      for (int pair = 0; pair < parents.length; pair++) {
+        int image = pairIndex[permutation[pairFrom[pair]]]
+                             [permutation[pairTo[pair]]];
+        int a     = find(pair);
+        int b     = find(image);
+
+        if (a < b) {
+          parents[b] = a;
+        } else if (b < a) {
+          parents[a] = b;
+        }
+      }
+    }
+
+    for (int pair = 0; pair < parents.length; pair++) {
+      parents[pair] = find(pair);
+    }
+  }
+
+  /**
+   * The root of the orbit tree holding the pair.
+   */
+  private int find(int pair) {
+    while (parents[pair] != pair) {
+      parents[pair] = parents[parents[pair]];
+      pair          = parents[pair];
+    }
+
+    return pair;
+  }
+
+  /**
+   * Determines whether the graph is connected.
+   */
+  private static boolean isConnected(Graph graph) {
+    int       order   = graph.getOrder();
+    boolean[] reached = new boolean[order];
+    int[]     queue   = new int[order];
+    int       tail    = 0;
+
+    reached[0]    = true;
+    queue[tail++] = 0;
+
+    for (int head = 0; head < tail; head++) {
+      for (int to = graph.nextNeighbor(queue[head], 0); to >= 0;
+           to = graph.nextNeighbor(queue[head], to + 1)) {
+        if (!reached[to]) {
+          reached[to]   = true;
+          queue[tail++] = to;
+        }
+      }
+    }
+
+    return tail == order;
+  }
+}
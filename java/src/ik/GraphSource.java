@@ -0,0 +1,35 @@
+package ik;
+
+import java.io.IOException;
+
+/**
+ * A sequence of graphs to classify, read one at a time from some input.
+ * A source reports its place in the input, so that a run can be resumed
+ * from it.
+ */
+public interface GraphSource {
+    /**
+     * Reads the next graph.
+     *
+     * @return The next Graph, or null if the end has been reached.
+     * @throws IOException if there is an IO issue.
+     * @throws IllegalArgumentException if there is a problem with the
+     *         graph data.
+     */
+    public Graph next() throws IOException, IllegalArgumentException;
+
+    /**
+     * The place in the input just after the last graph read, which only
+     * ever grows.  For a file it is a byte offset.
+     *
+     * @return A long position, 0 before any graph has been read.
+     */
+    public long getPosition();
+
+    /**
+     * Releases the underlying input.
+     *
+     * @throws IOException if there is an IO issue.
+     */
+    public void close() throws IOException;
+}
@@ -8,10 +8,14 @@ public interface IKClassification {
     public static final String IS_IK               = "ik";
     public static final String IS_NOT_IK           = "not_ik";
     public static final String CANNOT_DETERMINE_IK = "indeterminate";
+    public static final String BUDGET_EXHAUSTED    = "budget_exhausted";
     
     /**
      * This method will classify the given graph into one of three states--
-     * ik, not ik, or indeterminate.
+     * ik, not ik, or indeterminate.  A test whose search runs out of its
+     * SearchBudget throws a BudgetExhaustedException instead, which
+     * KnotFinder reports as BUDGET_EXHAUSTED if no other test decides the
+     * graph.
      *
      * @param  graph The graph to be classified
      * @return       A String result which is one of the constants IS_IK
@@ -2,7 +2,8 @@ package ik;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
@@ -15,23 +16,28 @@ import static ik.GraphConstants.*;
  */
 public class KnotFinder
 {
-  private static final Pattern            DIGIT_REGEX         =
-                         Pattern.compile("\\d+");
   private static final SimpleDateFormat   DATE_FORMAT         =
                          new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+  // The known IK graphs share their minor searches, so the scheduler keeps
+  // their tests together in this order
+  private static final ContainsMinorClassification[] CONTAINS_MINOR =
+                         ContainsMinorClassification.together(K7, H8, H9, F9,
+                                                              K3311, A9, B9);
+
   public  static final IKClassification[] IK_CLASSIFICATIONS  =
                          {new NullClassification(),
                           new OrderClassification(),
                           new AbsoluteSizeClassification(),
                           new RelativeSizeClassification(),
                           new PlanarityClassification(),
-                          new ContainsMinorClassification(K7),
-                          new ContainsMinorClassification(H8),
-                          new ContainsMinorClassification(H9),
-                          new ContainsMinorClassification(F9),
-                          new ContainsMinorClassification(K3311),
-                          new ContainsMinorClassification(A9),
-                          new ContainsMinorClassification(B9),
+                          CONTAINS_MINOR[0],
+                          CONTAINS_MINOR[1],
+                          CONTAINS_MINOR[2],
+                          CONTAINS_MINOR[3],
+                          CONTAINS_MINOR[4],
+                          CONTAINS_MINOR[5],
+                          CONTAINS_MINOR[6],
                           new MinorOfClassification(K7),
                           new MinorOfClassification(H8),
                           new MinorOfClassification(H9),
@@ -40,89 +46,503 @@ public class KnotFinder
                           new MinorOfClassification(A9),
                           new MinorOfClassification(B9)};
 
-  private static BufferedReader brGraphs = null;
+  // The same tests with each search split across the ForkJoinPool, for the
+  // few hard graphs deferred to later passes
+  private static final ContainsMinorClassification[] PARALLEL_CONTAINS_MINOR =
+                         ContainsMinorClassification.together(
+                           MinorEngine.PARALLEL, K7, H8, H9, F9, K3311, A9, B9);
+
+  private static final IKClassification[] PARALLEL_CLASSIFICATIONS =
+                         {new NullClassification(),
+                          new OrderClassification(),
+                          new AbsoluteSizeClassification(),
+                          new RelativeSizeClassification(),
+                          new PlanarityClassification(true),
+                          PARALLEL_CONTAINS_MINOR[0],
+                          PARALLEL_CONTAINS_MINOR[1],
+                          PARALLEL_CONTAINS_MINOR[2],
+                          PARALLEL_CONTAINS_MINOR[3],
+                          PARALLEL_CONTAINS_MINOR[4],
+                          PARALLEL_CONTAINS_MINOR[5],
+                          PARALLEL_CONTAINS_MINOR[6],
+                          new MinorOfClassification(K7, MinorEngine.PARALLEL),
+                          new MinorOfClassification(H8, MinorEngine.PARALLEL),
+                          new MinorOfClassification(H9, MinorEngine.PARALLEL),
+                          new MinorOfClassification(F9, MinorEngine.PARALLEL),
+                          new MinorOfClassification(K3311,
+                                                    MinorEngine.PARALLEL),
+                          new MinorOfClassification(A9, MinorEngine.PARALLEL),
+                          new MinorOfClassification(B9, MinorEngine.PARALLEL)};
+
+  // The tests before this index are cheap and always run first, in order
+  private static final int                ADAPTIVE_START      = 5;
+
+  // Each pass over the deferred graphs multiplies the budgets by this, and
+  // the pass after the last budgeted one searches without limit
+  private static final int                BUDGET_ESCALATION   = 16;
+  private static final int                BUDGETED_PASSES     = 3;
+
+  private static GraphSource    graphs   = null;
   private static BufferedWriter bwOut    = null;
   private static String         command  = null;
+  private static ResultStore    store    = null;
+
+  private static ClassificationScheduler scheduler = null;
+
+  // The budget each test's searches get, 0 for no limit, and the graphs
+  // whose tests ran out of it in this pass
+  private static long                    nodeBudget  = 0;
+  private static long                    nanoBudget  = 0;
+  private static List<Graph>             deferred    = new ArrayList<Graph>();
+  private static Map<Graph, ClassificationResult> spent =
+                         new IdentityHashMap<Graph, ClassificationResult>();
+
+  // Whether the tests of the current pass split their searches
+  private static boolean                 parallel    = false;
+
+  // The record of the results written, if the run can be resumed
+  private static ProgressJournal         journal     = null;
+
+  // The writer of the results in the binary format, if they are binary
+  private static BinaryResultWriter      binaryOut   = null;
 
   /** 
    * The main method which drives the classification attempt on the graphs.
    */
   public static void main(String[] args) throws Exception {
-    if (args.length == 0) {
-      System.out.println("usage: java KnotFinder <graph file> [output file]");
+    int     threads   = 1;
+    boolean ordered   = true;
+    String  storeFile = null;
+    String  statsFile = null;
+    String  format    = "auto";
+    long    dumpEvery = -1;
+    int     generate  = 0;
+    String  edges     = null;
+    String  shard     = null;
+    boolean split     = false;
+    String  progress  = null;
+    boolean resume    = false;
+    String  written   = "text";
+    int     argIndex  = 0;
+
+    // Pull off the options that come before the file names
+    while (argIndex < args.length && args[argIndex].startsWith("-") &&
+           !args[argIndex].equals("-")) {
+      String option = args[argIndex++];
+
+      if (option.equals("-t") && argIndex < args.length) {
+        threads = Integer.parseInt(args[argIndex++]);
+      } else if (option.equals("-u")) {
+        ordered = false;
+      } else if (option.equals("-c") && argIndex < args.length) {
+        storeFile = args[argIndex++];
+      } else if (option.equals("-s") && argIndex < args.length) {
+        statsFile = args[argIndex++];
+      } else if (option.equals("-i") && argIndex < args.length) {
+        format = args[argIndex++];
+      } else if (option.equals("-m") && argIndex < args.length) {
+        dumpEvery = Long.parseLong(args[argIndex++]);
+      } else if (option.equals("-b") && argIndex < args.length) {
+        nodeBudget = Long.parseLong(args[argIndex++]);
+      } else if (option.equals("-d") && argIndex < args.length) {
+        nanoBudget = (long)(Double.parseDouble(args[argIndex++]) * 1e9);
+      } else if (option.equals("-g") && argIndex < args.length) {
+        generate = Integer.parseInt(args[argIndex++]);
+      } else if (option.equals("-e") && argIndex < args.length) {
+        edges = args[argIndex++];
+      } else if (option.equals("-r") && argIndex < args.length) {
+        shard = args[argIndex++];
+      } else if (option.equals("-p")) {
+        split = true;
+      } else if (option.equals("-j") && argIndex < args.length) {
+        progress = args[argIndex++];
+      } else if (option.equals("-a")) {
+        resume = true;
+      } else if (option.equals("-w") && argIndex < args.length) {
+        written = args[argIndex++];
+      } else {
+        argIndex = args.length;
+      }
+    }
+
+    // Generated graphs take the place of the graph file
+    GraphSource generator = null;
+    int         files     = args.length - argIndex;
+
+    if (generate > 0) {
+      try {
+        generator = GraphGenerator.create(generate, edges, shard);
+        files++;
+      } catch (IllegalArgumentException e) {
+        files = 0;
+      }
+    }
+
+    // A journal only makes sense alongside an output file
+    if (files < 1 || files > 2 ||
+        (progress != null && files != 2) || (resume && progress == null) ||
+        threads < 1 || !(format.equals("auto")  ||
+                         format.equals("showg") ||
+                         format.equals("graph6")) ||
+        !(written.equals("text") || written.equals("binary"))) {
+      System.out.println("usage: java KnotFinder [-t threads] [-u] " +
+                         "[-c store file] [-s stats file] " +
+                         "[-i format] [-m seconds] [-b nodes] " +
+                         "[-d seconds] [-p] [-j journal [-a]] " +
+                         "[-w format] <graph file> [output file]");
+      System.out.println("   or: java KnotFinder [options] -g order " +
+                         "[-e min:max] [-r res/mod] [output file]");
+      System.out.println("  -t  The number of graphs to classify at once");
+      System.out.println("  -u  Write results as they complete instead " +
+                         "of in input order");
+      System.out.println("  -c  Reuse and record results in a persistent " +
+                         "result store");
+      System.out.println("  -s  Order the tests by the cost and hit rate " +
+                         "statistics in the file, and update them");
+      System.out.println("  -i  The graph file format: showg, graph6 or " +
+                         "auto (the default)");
+      System.out.println("  -m  Record metrics, publish them over JMX and " +
+                         "print them to stderr every so many seconds " +
+                         "(0 for only at the end)");
+      System.out.println("  -b  Give each test this many search nodes, " +
+                         "deferring graphs that need more to later passes");
+      System.out.println("  -d  Give each test this many seconds of " +
+                         "search, deferring graphs that need more");
+      System.out.println("  -p  Split the search of each deferred graph " +
+                         "across all cores");
+      System.out.println("  -j  Record progress in a journal so that the " +
+                         "run can be resumed (needs an output file)");
+      System.out.println("  -a  Resume the run recorded in the journal, " +
+                         "appending to its output");
+      System.out.println("  -w  The results format: text (the default) " +
+                         "or binary, which also counts search nodes");
+      System.out.println("  -g  Generate the connected graphs of the " +
+                         "order instead of reading a graph file");
+      System.out.println("  -e  Only generate graphs with from min to max " +
+                         "edges");
+      System.out.println("  -r  Only generate shard res of mod shards");
+      System.out.println("  A graph file of - reads from stdin");
       System.exit(0);
     }
 
-    String infile  = args[0];
-    String outfile = args.length == 2 ? args[1] : null;
+    String outfile = files == 2 ? args[args.length - 1] : null;
 
     // Recreate what the command looked like
-    command = "java -jar knotfinder.jar "+infile;
+    command = "java -jar knotfinder.jar";
+
+    for (int i = 0; i < args.length; i++) {
+      command += " " + args[i];
+    }
+
+    long position = 0;
+    long count    = 0;
+
+    if (progress != null) {
+      journal  = new ProgressJournal(new File(progress), resume);
+      position = journal.getResumePosition();
+      count    = journal.getResumeCount();
+    }
+
+    GraphSource source = null;
 
-    if (outfile != null) {
-      command += " " + outfile;
+    if (generator != null) {
+      source = generator;
+      skipTo(source, position);
+    } else {
+      source = openGraphs(args[argIndex], format, position, count);
     }
 
-    initializeFiles(infile, outfile);
-    printHeader();
+    initializeFiles(source, outfile, written.equals("binary"));
 
-    Graph currentGraph = nextGraph();
+    if (journal == null || !journal.isResumed()) {
+      printHeader();
+    }
+
+    if (storeFile != null) {
+      store = new ResultStore(storeFile);
+    }
 
-    // Iterate over each graph
-    while (currentGraph != null) {
-      String           result      = IKClassification.CANNOT_DETERMINE_IK;
-      int              testIndex   = 0;
-      IKClassification currentTest = null;
-      long             startTime   = new Date().getTime();
+    if (dumpEvery >= 0) {
+      Metrics metrics = Metrics.enable(IK_CLASSIFICATIONS);
 
-      // Try each classification test until we find a non indeterminate
-      // result
-      while ((testIndex < IK_CLASSIFICATIONS.length) &&
-             (result == IKClassification.CANNOT_DETERMINE_IK)) {
-        currentTest = (IKClassification)IK_CLASSIFICATIONS[testIndex];
-        result      = currentTest.classify(currentGraph);
-        testIndex++;
+      if (dumpEvery > 0) {
+        metrics.startDump(System.err, dumpEvery);
       }
+    }
 
-      long   endTime = new Date().getTime();
-      double seconds = (endTime - startTime) / 1000.0;
-      logResult(currentGraph, result, currentTest, seconds);
+    if (statsFile != null) {
+      scheduler = new ClassificationScheduler(IK_CLASSIFICATIONS,
+                                              ADAPTIVE_START);
+      scheduler.keepTogether(ADAPTIVE_START, CONTAINS_MINOR.length);
 
-      currentGraph = nextGraph();
+      if (new File(statsFile).exists()) {
+        scheduler.load(new File(statsFile));
+      }
+    }
+
+    classifyAll(threads, ordered);
+
+    // Graphs too hard for the budget are retried with ever larger budgets,
+    // after everything else has been written.  There are few of them, so
+    // their searches may be split to keep every core busy.
+    for (int pass = 1; !deferred.isEmpty(); pass++) {
+      List<Graph> retry = deferred;
+
+      parallel = split;
+
+      if (pass > BUDGETED_PASSES) {
+        nodeBudget = 0;
+        nanoBudget = 0;
+      } else {
+        nodeBudget *= BUDGET_ESCALATION;
+        nanoBudget *= BUDGET_ESCALATION;
+      }
+
+      deferred = new ArrayList<Graph>();
+      graphs.close();
+      graphs = new DeferredGraphs(retry);
+
+      classifyAll(threads, ordered);
+    }
+
+    if (store != null) {
+      store.close();
+    }
+
+    if (scheduler != null) {
+      scheduler.save(new File(statsFile));
+    }
+
+    if (Metrics.isEnabled()) {
+      System.err.println(Metrics.get().getSnapshot());
     }
 
     closeFiles();
   }
 
+  /**
+   * Classifies and logs each graph from the current source.
+   *
+   * @param threads The number of graphs to classify at once.
+   * @param ordered Whether results are written in input order.
+   * @throws Exception if reading, classifying or writing a graph fails.
+   */
+  private static void classifyAll(int threads, boolean ordered)
+                                  throws Exception {
+    if (threads > 1) {
+      new ClassificationPipeline(threads, ordered, 16 * threads).run();
+    } else {
+      Graph currentGraph = nextGraph();
+
+      // Iterate over each graph
+      while (currentGraph != null) {
+        logResult(classify(currentGraph));
+
+        currentGraph = nextGraph();
+      }
+    }
+  }
+
+  /**
+   * Try each classification test on the graph until we find a non
+   * indeterminate result.  Each test's searches are limited by the current
+   * budget, if there is one; a graph that no test decides and that some
+   * test ran out of budget on is BUDGET_EXHAUSTED.  When the results are
+   * binary, the search nodes of the tests are counted too, with a budget
+   * that has no limit if there is no other.  If a scheduler is in use, it
+   * chooses the order of the tests and is told how each one went, as are
+   * the metrics.  If a result store is open, a graph isomorphic to one
+   * classified before is answered from the store, and new definite results
+   * are recorded in it.
+   *
+   * @param graph The graph to classify.
+   * @return The ClassificationResult for the graph.
+   * @throws IOException if the result store cannot be read or written.
+   */
+  static ClassificationResult classify(Graph graph) throws IOException {
+    String           result      = IKClassification.CANNOT_DETERMINE_IK;
+    int              testIndex   = 0;
+    IKClassification currentTest = null;
+    long             startTime   = System.nanoTime();
+    int[]            schedule    = null;
+    boolean          exhausted   = false;
+    long             nodes       = 0;
+
+    if (store != null) {
+      ResultStore.Entry entry = store.lookup(graph.canonicalCertificate());
+
+      // Results from tests that no longer exist are worked out again
+      if (entry != null) {
+        currentTest = findTest(entry.getTestName());
+      }
+
+      if (currentTest != null) {
+        result    = entry.getResult().equals(IKClassification.IS_IK) ?
+                    IKClassification.IS_IK : IKClassification.IS_NOT_IK;
+        testIndex = IK_CLASSIFICATIONS.length;
+      }
+    }
+
+    if (scheduler != null && testIndex < IK_CLASSIFICATIONS.length) {
+      schedule = scheduler.schedule(graph);
+    }
+
+    while ((testIndex < IK_CLASSIFICATIONS.length) &&
+           (result == IKClassification.CANNOT_DETERMINE_IK)) {
+      int  nextTest  = schedule == null ? testIndex : schedule[testIndex];
+      long testStart = System.nanoTime();
+
+      currentTest = parallel ? PARALLEL_CLASSIFICATIONS[nextTest]
+                             : IK_CLASSIFICATIONS[nextTest];
+      testIndex++;
+
+      SearchBudget budget = null;
+
+      if (nodeBudget > 0 || nanoBudget > 0 || binaryOut != null) {
+        budget = new SearchBudget(nodeBudget, nanoBudget);
+        SearchBudget.setCurrent(budget);
+      }
+
+      try {
+        result = currentTest.classify(graph);
+      } catch (BudgetExhaustedException e) {
+        result    = IKClassification.CANNOT_DETERMINE_IK;
+        exhausted = true;
+        Metrics.countBudgetExhaustion();
+      } finally {
+        SearchBudget.setCurrent(null);
+      }
+
+      if (budget != null) {
+        nodes += budget.getNodes();
+      }
+
+      long    testNanos = System.nanoTime() - testStart;
+      boolean decided   = result != IKClassification.CANNOT_DETERMINE_IK;
+
+      if (scheduler != null && nextTest >= ADAPTIVE_START) {
+        scheduler.record(graph, nextTest, testNanos, decided);
+      }
+      Metrics.recordTest(nextTest, testNanos, decided);
+
+      if (store != null && decided) {
+        store.store(graph.canonicalCertificate(), result,
+                    currentTest.getName());
+      }
+    }
+
+    // A graph no test could decide within its budget may yet be decided
+    if (exhausted && result == IKClassification.CANNOT_DETERMINE_IK) {
+      result      = IKClassification.BUDGET_EXHAUSTED;
+      currentTest = null;
+    }
+
+    long   endTime = System.nanoTime();
+    double seconds = ((endTime - startTime) / 1000000) / 1000.0;
+
+    Metrics.recordGraph(endTime - startTime);
+
+    return new ClassificationResult(graph, result, currentTest, seconds,
+                                    endTime - startTime, nodes);
+  }
+
+  /**
+   * Finds the classification test with the given name.
+   *
+   * @param name The name of a test, as returned by getName.
+   * @return The IKClassification, or null if there is no such test.
+   */
+  private static IKClassification findTest(String name) {
+    for (int i = 0; i < IK_CLASSIFICATIONS.length; i++) {
+      if (IK_CLASSIFICATIONS[i].getName().equals(name)) {
+        return IK_CLASSIFICATIONS[i];
+      }
+    }
+
+    return null;
+  }
+
   /** 
    * Print the result of the classification attempt to the output stream.
+   * A graph that ran out of its search budget is instead put aside for the
+   * next pass, and its time and search nodes so far are added to those of
+   * its result.
    *
-   * @param graph The graph we are working with.
-   * @param result The result of the classification.
-   * @param lastTest The test which determined that result.
-   * @param seconds The number of seconds to perform the classification.
+   * @param classification The result of classifying a graph.
    * @throws IOException if there is an IO error.
    */
-  private static void logResult(Graph            graph,
-                                String           result,
-                                IKClassification lastTest,
-                                double           seconds) throws IOException {
-    String resultString = null;
-
-    if (result == IKClassification.CANNOT_DETERMINE_IK) {
-      resultString = graph.getName() + ", "   +
-                     result          + ", , " +
-                     seconds;
+  static void logResult(ClassificationResult classification)
+                        throws IOException {
+    Graph                graph        = classification.getGraph();
+    String               result       = classification.getResult();
+    IKClassification     lastTest     = classification.getLastTest();
+    double               seconds      = classification.getSeconds();
+    long                 nanos        = classification.getNanos();
+    long                 nodes        = classification.getNodes();
+    String               resultString = null;
+    ClassificationResult earlier      = spent.remove(graph);
+
+    if (earlier != null) {
+      nanos += earlier.getNanos();
+      nodes += earlier.getNodes();
+    }
+
+    // Hold the graph back for a pass with a larger budget
+    if (result == IKClassification.BUDGET_EXHAUSTED &&
+        (nodeBudget > 0 || nanoBudget > 0)) {
+      seconds += earlier == null ? 0 : earlier.getSeconds();
+      spent.put(graph, new ClassificationResult(graph, result, null, seconds,
+                                                nanos, nodes));
+      deferred.add(graph);
+      return;
+    }
+
+    if (earlier != null) {
+      seconds = Math.round((seconds + earlier.getSeconds()) * 1000) / 1000.0;
+    }
+
+    if (binaryOut != null) {
+      binaryOut.write(Long.parseLong(graph.getName()), result,
+                      testIndex(lastTest), nanos, nodes);
     } else {
-      resultString = graph.getName()    + ", " +
-                     result             + ", " +
-                     lastTest.getName() + ", " +
-                     seconds;
+      if (result == IKClassification.CANNOT_DETERMINE_IK ||
+          result == IKClassification.BUDGET_EXHAUSTED) {
+        resultString = graph.getName() + ", "   +
+                       result          + ", , " +
+                       seconds;
+      } else {
+        resultString = graph.getName()    + ", " +
+                       result             + ", " +
+                       lastTest.getName() + ", " +
+                       seconds;
+      }
+
+      bwOut.write(resultString);
+      bwOut.newLine();
+      bwOut.flush();
     }
 
-    bwOut.write(resultString);
-    bwOut.newLine();
-    bwOut.flush();
+    if (journal != null) {
+      journal.written(graph);
+    }
+  }
+
+  /**
+   * Finds the index of a classification test, in the order of
+   * IK_CLASSIFICATIONS whichever of the tests it is.
+   *
+   * @param test The IKClassification, or null.
+   * @return The int index, or -1 if there is no test.
+   */
+  private static int testIndex(IKClassification test) {
+    for (int i = 0; test != null && i < IK_CLASSIFICATIONS.length; i++) {
+      if (IK_CLASSIFICATIONS[i] == test ||
+          PARALLEL_CLASSIFICATIONS[i] == test) {
+        return i;
+      }
+    }
+
+    return -1;
   }
 
   /**
@@ -133,97 +553,240 @@ public class KnotFinder
    * @throws IllegalArgumentException if there is a problem with the
    *         graph data.
    */
-  private static Graph nextGraph() throws IOException, 
-                                          IllegalArgumentException {
-    Graph graph = null;
+  static Graph nextGraph() throws IOException,
+                                  IllegalArgumentException {
+    if (journal == null) {
+      return graphs.next();
+    }
 
-    // Remove any blank lines
-    String nextLine = brGraphs.readLine();
+    // Graphs whose results a resumed run already wrote are passed over
+    Graph   graph    = null;
+    boolean classify = false;
 
-    while (nextLine != null && nextLine.trim().length() == 0) {
-      nextLine = brGraphs.readLine();
+    while (!classify) {
+      long start = graphs.getPosition();
+
+      graph    = graphs.next();
+      classify = graph == null ||
+                 journal.read(graph, start, graphs.getPosition());
     }
 
-    // Parse the next graph
-    if (nextLine != null) {
-      String titleLine = nextLine;
-      String descLine  = brGraphs.readLine();
-      String edges     = brGraphs.readLine();
+    return graph;
+  }
+
+  /**
+   * Takes the graphs to classify and opens the output file.  If an output
+   * file isn't supplied, then output goes to stdout.  A resumed run cuts
+   * the output back to what its journal committed and appends to it.
+   *
+   * @param source The graphs to classify.
+   * @param outputFilePath The filepath for the output file (can be null).
+   * @param binary Whether the results are written in the binary format.
+   * @throws IOException if there is an IO issue.
+   */
+  private static void initializeFiles(GraphSource source,
+                                      String      outputFilePath,
+                                      boolean     binary)
+                                     throws IOException {
+    graphs = source;
+
+    if (outputFilePath == null) {
+      if (binary) {
+        binaryOut = new BinaryResultWriter(System.out);
+      } else {
+        bwOut = new BufferedWriter(new PrintWriter(System.out));
+      }
+    } else {
+      boolean          append = journal != null && journal.isResumed();
+      FileOutputStream out    = new FileOutputStream(outputFilePath, append);
 
-      // Are there multiple lines of edges?
-      nextLine = brGraphs.readLine();
-      while (nextLine != null && nextLine.trim().length() != 0) {
-        edges   += " "+nextLine;
-        nextLine = brGraphs.readLine();
+      if (append) {
+        out.getChannel().truncate(journal.getResumeLength());
       }
 
-      // The title line looks like "Graph 3, order 8." so pull
-      // out the numbers
-      Matcher match = DIGIT_REGEX.matcher(titleLine);
-      match.find();
-      String name  = match.group();
-      match.find();
-      int order = Integer.parseInt(match.group());
+      Flushable flushed = null;
 
-      graph = new Graph(name, order);
-      addAllEdges(graph, edges);
-    }
+      if (binary) {
+        binaryOut = new BinaryResultWriter(out);
+        flushed   = binaryOut;
+      } else {
+        bwOut   = new BufferedWriter(new OutputStreamWriter(out));
+        flushed = bwOut;
+      }
 
-    return graph;
+      if (journal != null) {
+        journal.setOutput(flushed, out.getChannel());
+      }
+    }
   }
 
   /**
-   * Adds all of the edges to the graph object from the 'edges' String
-   * which was read from a file.
-   *
-   * @param graph The current graph we are working with.
-   * @param edges The String line from the file which represents the edges.
+   * Closes the input and output files.
    */
-  private static void addAllEdges(Graph graph, String edges) {
-    StringTokenizer stEdges = new StringTokenizer(edges);
+  private static void closeFiles() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+
+    graphs.close();
 
-    while (stEdges.hasMoreElements()) {
-      int fromVert = Integer.parseInt(stEdges.nextToken());
-      int toVert   = Integer.parseInt(stEdges.nextToken());
-      graph.addEdge(fromVert, toVert);
+    if (binaryOut != null) {
+      binaryOut.close(System.currentTimeMillis());
+    } else {
+      bwOut.write("\n"+DATE_FORMAT.format(new Date())+"\n");
+      bwOut.close();
     }
   }
 
   /**
-   * Opens the input and output files.  If an output file isn't supplied,
-   * then output goes to stdout.
+   * Opens a GraphSource of the right format over a file or stdin.
    *
-   * @param graphFilePath The filepath where the graphs will be read from.
-   * @param outputFilePath The filepath for the output file (can be null).
+   * @param graphFilePath The filepath where the graphs will be read from,
+   *                      or "-" for stdin.
+   * @param format The format of the graphs: showg, graph6 or auto to tell
+   *               from the first bytes.
+   * @return The GraphSource.
    * @throws IOException if there is an IO issue.
    */
-  private static void initializeFiles(String graphFilePath,
-                                      String outputFilePath)
-                                     throws IOException {
-    brGraphs = new BufferedReader(new FileReader(graphFilePath));
+  static GraphSource openGraphs(String graphFilePath, String format)
+                                       throws IOException {
+    return openGraphs(graphFilePath, format, 0, 0);
+  }
 
-    if (outputFilePath == null) {
-      bwOut = new BufferedWriter(new PrintWriter(System.out));
+  /**
+   * Opens a GraphSource of the right format over a file or stdin, starting
+   * at a position it reported earlier.  A file is read from that offset;
+   * stdin is read up to it and the graphs thrown away.
+   *
+   * @param graphFilePath The filepath where the graphs will be read from,
+   *                      or "-" for stdin.
+   * @param format The format of the graphs: showg, graph6 or auto to tell
+   *               from the first bytes.
+   * @param position The position to start at, from getPosition.
+   * @param count The number of graphs before the position.
+   * @return The GraphSource.
+   * @throws IOException if there is an IO issue.
+   */
+  static GraphSource openGraphs(String graphFilePath, String format,
+                                long position, long count)
+                               throws IOException {
+    InputStream in   = null;
+    byte[]      head = new byte[4096];
+
+    if (graphFilePath.equals("-")) {
+      // Whatever is read to detect the format is pushed back for the reader
+      PushbackInputStream stdin = new PushbackInputStream(System.in,
+                                                          head.length);
+      if (format.equals("auto")) {
+        int length = readHead(stdin, head);
+        stdin.unread(head, 0, length);
+        format = Graph6Reader.isGraph6(head, length) ? "graph6" : "showg";
+      }
+      in = stdin;
     } else {
-      bwOut = new BufferedWriter(new FileWriter(outputFilePath));
+      if (format.equals("auto")) {
+        InputStream probe = new FileInputStream(graphFilePath);
+        try {
+          int length = readHead(probe, head);
+          format = Graph6Reader.isGraph6(head, length) ? "graph6" : "showg";
+        } finally {
+          probe.close();
+        }
+      }
+      in = new FileInputStream(graphFilePath);
     }
+
+    GraphSource source = null;
+
+    if (in instanceof FileInputStream) {
+      FileChannel channel = ((FileInputStream)in).getChannel();
+
+      channel.position(position);
+
+      if (format.equals("showg")) {
+        source = new ShowgReader(new InputStreamReader(in), position);
+      } else {
+        source = new Graph6Reader(channel, position, count);
+      }
+    } else if (format.equals("showg")) {
+      source = new ShowgReader(new InputStreamReader(in));
+    } else {
+      source = new Graph6Reader(Channels.newChannel(in));
+    }
+
+    skipTo(source, position);
+
+    return source;
   }
 
   /**
-   * Closes the input and output files.
+   * Reads graphs from a source until it reaches a position.
    */
-  private static void closeFiles() throws IOException {
-    bwOut.write("\n"+DATE_FORMAT.format(new Date())+"\n");
+  private static void skipTo(GraphSource source, long position)
+                            throws IOException {
+    while (source.getPosition() < position && source.next() != null) {
+    }
+  }
+
+  /**
+   * Reads the first bytes of a stream, until the buffer is full or the
+   * stream ends.
+   *
+   * @return The number of bytes read.
+   */
+  private static int readHead(InputStream in, byte[] head)
+                             throws IOException {
+    int length = 0;
+    int read   = in.read(head, 0, head.length);
+
+    while (read >= 0 && length + read < head.length) {
+      length += read;
+      read    = in.read(head, length, head.length - length);
+    }
 
-    brGraphs.close();
-    bwOut.close();
+    return read < 0 ? length : length + read;
   }
 
   /**
    * Prints the first line of the output
    */
   private static void printHeader() throws IOException {
+    if (binaryOut != null) {
+      binaryOut.writeHeader(System.currentTimeMillis(), command,
+                            IK_CLASSIFICATIONS);
+      return;
+    }
+
     bwOut.write(DATE_FORMAT.format(new Date())+"\n");
     bwOut.write(command+"\n\n");
   }
+
+  /**
+   * The graphs put aside in one pass, read back for the next.
+   */
+  private static class DeferredGraphs implements GraphSource {
+    private final Iterator<Graph> graphs;
+    private       long            position;
+
+    DeferredGraphs(List<Graph> graphs) {
+      this.graphs   = graphs.iterator();
+      this.position = 0;
+    }
+
+    public Graph next() {
+      if (!graphs.hasNext()) {
+        return null;
+      }
+
+      position++;
+      return graphs.next();
+    }
+
+    public long getPosition() {
+      return position;
+    }
+
+    public void close() {
+    }
+  }
 }
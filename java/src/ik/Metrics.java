@@ -0,0 +1,379 @@
+package ik;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers for the classification pipeline: how long each test
+ * and each graph takes, how much work the minor and subgraph searches do,
+ * and histograms of the latencies.  They are published over JMX and can be
+ * dumped periodically as a line of name=value pairs.
+ *
+ * Metrics are off until enable is called, which should happen before any
+ * classification starts.  While they are off every recording method
+ * returns after testing a single static flag, so the calls can stay on the
+ * hot paths of the searches.  Counters are LongAdders so that threads
+ * classifying in parallel do not contend on them.
+ */
+public class Metrics implements MetricsMXBean {
+  public  static final String OBJECT_NAME = "ik:type=Metrics";
+
+  // The histograms have one bucket for each power of two nanoseconds
+  private static final int    BUCKETS     = 64;
+
+  private static boolean enabled  = false;
+  private static Metrics instance = null;
+
+  private final IKClassification[] tests;
+  private final LongAdder          graphs;
+  private final LongAdder          graphNanos;
+  private final LongAdder          minorNodes;
+  private final LongAdder          contractions;
+  private final LongAdder          subgraphSearches;
+  private final LongAdder          subgraphBacktracks;
+  private final LongAdder          budgetExhaustions;
+  private final LongAdder[]        filterRejections;
+  private final LongAdder[]        testRuns;
+  private final LongAdder[]        testDecisions;
+  private final LongAdder[]        testNanos;
+  private final AtomicLongArray    graphLatency;
+  private final AtomicLongArray[]  testLatency;
+
+  /**
+   * Creates the metrics for a chain of tests.
+   */
+  private Metrics(IKClassification[] tests) {
+    this.tests              = tests;
+    this.graphs             = new LongAdder();
+    this.graphNanos         = new LongAdder();
+    this.minorNodes         = new LongAdder();
+    this.contractions       = new LongAdder();
+    this.subgraphSearches   = new LongAdder();
+    this.subgraphBacktracks = new LongAdder();
+    this.budgetExhaustions  = new LongAdder();
+    this.filterRejections   = new LongAdder[MinorFilter.values().length];
+    this.testRuns           = new LongAdder[tests.length];
+    this.testDecisions      = new LongAdder[tests.length];
+    this.testNanos          = new LongAdder[tests.length];
+    this.graphLatency       = new AtomicLongArray(BUCKETS);
+    this.testLatency        = new AtomicLongArray[tests.length];
+
+    for (int i = 0; i < tests.length; i++) {
+      testRuns[i]      = new LongAdder();
+      testDecisions[i] = new LongAdder();
+      testNanos[i]     = new LongAdder();
+      testLatency[i]   = new AtomicLongArray(BUCKETS);
+    }
+
+    for (int i = 0; i < filterRejections.length; i++) {
+      filterRejections[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Turns the metrics on and registers them with the platform MBean
+   * server.
+   *
+   * @param tests The classification tests, in the order their indices are
+   *              passed to recordTest.
+   * @return The Metrics now being recorded.
+   * @throws Exception if the MBean cannot be registered.
+   */
+  public static synchronized Metrics enable(IKClassification[] tests)
+                                            throws Exception {
+    if (instance == null) {
+      instance = new Metrics(tests);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+        instance, new ObjectName(OBJECT_NAME));
+      enabled = true;
+    }
+
+    return instance;
+  }
+
+  /**
+   * Whether metrics are being recorded.
+   *
+   * @return A boolean indicating whether enable has been called.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * The metrics being recorded.
+   *
+   * @return The Metrics, or null if they are not enabled.
+   */
+  public static Metrics get() {
+    return instance;
+  }
+
+  /**
+   * Counts a graph visited by the minor search.
+   */
+  static void countMinorNode() {
+    if (enabled) {
+      instance.minorNodes.increment();
+    }
+  }
+
+  /**
+   * Counts an edge contraction made by the minor search.
+   */
+  static void countContraction() {
+    if (enabled) {
+      instance.contractions.increment();
+    }
+  }
+
+  /**
+   * Counts a finished subgraph search.
+   *
+   * @param backtracks The number of times the search backtracked.
+   */
+  static void countSubgraphSearch(long backtracks) {
+    if (enabled) {
+      instance.subgraphSearches.increment();
+      instance.subgraphBacktracks.add(backtracks);
+    }
+  }
+
+  /**
+   * Counts a classification test that ran out of its search budget.
+   */
+  static void countBudgetExhaustion() {
+    if (enabled) {
+      instance.budgetExhaustions.increment();
+    }
+  }
+
+  /**
+   * Counts a minor ruled out by a MinorPrefilter before any search.
+   *
+   * @param filter The MinorFilter that ruled it out.
+   */
+  static void countFilterRejection(MinorFilter filter) {
+    if (enabled) {
+      instance.filterRejections[filter.ordinal()].increment();
+    }
+  }
+
+  /**
+   * Records one run of a classification test.
+   *
+   * @param test The index of the test.
+   * @param nanos The number of nanoseconds it took.
+   * @param decided Whether it determined a result.
+   */
+  static void recordTest(int test, long nanos, boolean decided) {
+    if (enabled) {
+      instance.testRuns[test].increment();
+      instance.testNanos[test].add(nanos);
+      instance.testLatency[test].incrementAndGet(bucket(nanos));
+
+      if (decided) {
+        instance.testDecisions[test].increment();
+      }
+    }
+  }
+
+  /**
+   * Records the classification of one graph.
+   *
+   * @param nanos The number of nanoseconds it took.
+   */
+  static void recordGraph(long nanos) {
+    if (enabled) {
+      instance.graphs.increment();
+      instance.graphNanos.add(nanos);
+      instance.graphLatency.incrementAndGet(bucket(nanos));
+    }
+  }
+
+  /**
+   * Starts a daemon thread that prints a snapshot to the stream at a fixed
+   * interval.
+   *
+   * @param out The stream to print to.
+   * @param seconds The number of seconds between snapshots.
+   */
+  public void startDump(final PrintStream out, final long seconds) {
+    Thread dumper = new Thread(new Runnable() {
+      public void run() {
+        try {
+          while (true) {
+            Thread.sleep(seconds * 1000);
+            out.println(getSnapshot());
+          }
+        } catch (InterruptedException e) {
+          // Stop dumping
+        }
+      }
+    }, "metrics-dump");
+
+    dumper.setDaemon(true);
+    dumper.start();
+  }
+
+  public long getGraphsClassified() {
+    return graphs.sum();
+  }
+
+  public long getGraphNanos() {
+    return graphNanos.sum();
+  }
+
+  public long getMinorSearchNodes() {
+    return minorNodes.sum();
+  }
+
+  public long getContractions() {
+    return contractions.sum();
+  }
+
+  public long getSubgraphSearches() {
+    return subgraphSearches.sum();
+  }
+
+  public long getSubgraphBacktracks() {
+    return subgraphBacktracks.sum();
+  }
+
+  public long getBudgetExhaustions() {
+    return budgetExhaustions.sum();
+  }
+
+  public long getCacheHits() {
+    return MinorSearchCache.getShared().getHits();
+  }
+
+  public long getCacheMisses() {
+    return MinorSearchCache.getShared().getMisses();
+  }
+
+  public Map<String, Long> getFilterRejections() {
+    Map<String, Long> values  = new LinkedHashMap<String, Long>();
+    MinorFilter[]     filters = MinorFilter.values();
+
+    for (int i = 0; i < filters.length; i++) {
+      values.put(filters[i].getName(),
+                 Long.valueOf(filterRejections[i].sum()));
+    }
+
+    return values;
+  }
+
+  public Map<String, Long> getTestRuns() {
+    return byTest(testRuns);
+  }
+
+  public Map<String, Long> getTestDecisions() {
+    return byTest(testDecisions);
+  }
+
+  public Map<String, Long> getTestNanos() {
+    return byTest(testNanos);
+  }
+
+  public long[] getGraphLatencyHistogram() {
+    return counts(graphLatency);
+  }
+
+  public String getSnapshot() {
+    StringBuilder snapshot = new StringBuilder("metrics");
+
+    append(snapshot, "time",                System.currentTimeMillis());
+    append(snapshot, "graphs",              getGraphsClassified());
+    append(snapshot, "graphNanos",          getGraphNanos());
+    append(snapshot, "minorNodes",          getMinorSearchNodes());
+    append(snapshot, "contractions",        getContractions());
+    append(snapshot, "subgraphSearches",    getSubgraphSearches());
+    append(snapshot, "subgraphBacktracks",  getSubgraphBacktracks());
+    append(snapshot, "budgetExhaustions",   getBudgetExhaustions());
+    append(snapshot, "cacheHits",           getCacheHits());
+    append(snapshot, "cacheMisses",         getCacheMisses());
+    append(snapshot, "graphLatency",        histogram(graphLatency));
+
+    for (Map.Entry<String, Long> filter : getFilterRejections().entrySet()) {
+      append(snapshot, "filtered." + filter.getKey(), filter.getValue());
+    }
+
+    for (int i = 0; i < tests.length; i++) {
+      String name = tests[i].getName();
+
+      append(snapshot, "runs."      + name, testRuns[i].sum());
+      append(snapshot, "decisions." + name, testDecisions[i].sum());
+      append(snapshot, "nanos."     + name, testNanos[i].sum());
+      append(snapshot, "latency."   + name, histogram(testLatency[i]));
+    }
+
+    return snapshot.toString();
+  }
+
+  /**
+   * The histogram bucket for a number of nanoseconds.
+   */
+  private static int bucket(long nanos) {
+    return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  /**
+   * The sums of the adders, keyed by test name.
+   */
+  private Map<String, Long> byTest(LongAdder[] adders) {
+    Map<String, Long> values = new LinkedHashMap<String, Long>();
+
+    for (int i = 0; i < tests.length; i++) {
+      values.put(tests[i].getName(), Long.valueOf(adders[i].sum()));
+    }
+
+    return values;
+  }
+
+  /**
+   * A copy of the bucket counts of a histogram.
+   */
+  private static long[] counts(AtomicLongArray histogram) {
+    long[] counts = new long[histogram.length()];
+
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = histogram.get(i);
+    }
+
+    return counts;
+  }
+
+  /**
+   * The bucket counts of a histogram as a comma separated list, without
+   * the empty buckets past the last one in use.
+   */
+  private static String histogram(AtomicLongArray histogram) {
+    long[] counts = counts(histogram);
+    int    last   = counts.length - 1;
+
+    while (last > 0 && counts[last] == 0) {
+      last--;
+    }
+
+    StringBuilder list = new StringBuilder();
+    for (int i = 0; i <= last; i++) {
+      list.append(i == 0 ? "" : ",").append(counts[i]);
+    }
+
+    return list.toString();
+  }
+
+  /**
+   * Appends a name=value pair to a snapshot.
+   */
+  private static void append(StringBuilder snapshot, String name,
+                             Object value) {
+    snapshot.append(' ').append(name).append('=').append(value);
+  }
+}
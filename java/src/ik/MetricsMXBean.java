@@ -0,0 +1,121 @@
+package ik;
+
+import java.util.Map;
+
+/**
+ * The management interface through which the classification metrics are
+ * published over JMX, under the name "ik:type=Metrics".
+ */
+public interface MetricsMXBean {
+    /**
+     * The number of graphs classified so far.
+     *
+     * @return A long count.
+     */
+    public long getGraphsClassified();
+
+    /**
+     * The total nanoseconds spent classifying graphs.
+     *
+     * @return A long number of nanoseconds.
+     */
+    public long getGraphNanos();
+
+    /**
+     * The number of graphs visited by the minor search, counting each
+     * contracted graph it recurses into.
+     *
+     * @return A long count.
+     */
+    public long getMinorSearchNodes();
+
+    /**
+     * The number of edge contractions made by the minor search.
+     *
+     * @return A long count.
+     */
+    public long getContractions();
+
+    /**
+     * The number of subgraph searches run.
+     *
+     * @return A long count.
+     */
+    public long getSubgraphSearches();
+
+    /**
+     * The number of times the subgraph search abandoned a partial
+     * embedding and backtracked.
+     *
+     * @return A long count.
+     */
+    public long getSubgraphBacktracks();
+
+    /**
+     * The number of classification tests that ran out of their search
+     * budget.
+     *
+     * @return A long count.
+     */
+    public long getBudgetExhaustions();
+
+    /**
+     * The number of minor search cache hits in the shared cache.
+     *
+     * @return A long count.
+     */
+    public long getCacheHits();
+
+    /**
+     * The number of minor search cache misses in the shared cache.
+     *
+     * @return A long count.
+     */
+    public long getCacheMisses();
+
+    /**
+     * The number of minors ruled out before any search by each of the
+     * MinorFilters, by name.
+     *
+     * @return A Map from filter name to count.
+     */
+    public Map<String, Long> getFilterRejections();
+
+    /**
+     * The number of times each classification test has run, by name.
+     *
+     * @return A Map from test name to count.
+     */
+    public Map<String, Long> getTestRuns();
+
+    /**
+     * The number of graphs each classification test has decided, by name.
+     *
+     * @return A Map from test name to count.
+     */
+    public Map<String, Long> getTestDecisions();
+
+    /**
+     * The total nanoseconds spent in each classification test, by name.
+     *
+     * @return A Map from test name to nanoseconds.
+     */
+    public Map<String, Long> getTestNanos();
+
+    /**
+     * A histogram of the time taken to classify each graph.  Bucket i
+     * counts the graphs that took at least 2^i and less than 2^(i+1)
+     * nanoseconds.
+     *
+     * @return The long counts of each bucket.
+     */
+    public long[] getGraphLatencyHistogram();
+
+    /**
+     * The whole set of metrics as a single line of name=value pairs, in the
+     * form of the periodic dump.
+     *
+     * @return A String snapshot.
+     */
+    public String getSnapshot();
+}
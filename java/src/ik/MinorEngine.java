@@ -0,0 +1,30 @@
+package ik;
+
+/**
+ * The ways Graph.containsMinor can search for a minor.
+ */
+public enum MinorEngine {
+  /**
+   * Contracts the edges of the graph in every order, looking for the minor
+   * as a subgraph of each graph reached.  Several minors can be searched
+   * for at once, sharing the contractions.
+   */
+  CONTRACTION,
+
+  /**
+   * Contracts the edges as CONTRACTION does, but searches the graphs of the
+   * first few levels of contractions as ForkJoinPool tasks, which idle
+   * threads steal.  Once the minors are found the tasks still running are
+   * cancelled.  This spreads the search of a single hard graph across the
+   * machine.
+   */
+  PARALLEL,
+
+  /**
+   * Searches for a model of the minor in the graph directly: a disjoint,
+   * connected branch set of vertices for each vertex of the minor, with an
+   * edge between the branch sets of each edge of the minor.  This suits a
+   * small minor in a large graph, where the contractions are too many.
+   */
+  BRANCH_SET
+}
@@ -0,0 +1,56 @@
+package ik;
+
+/**
+ * The cheap tests a MinorPrefilter runs before a minor search, each of
+ * which can prove that a graph does not contain another as a minor.  They
+ * run in this order, and the first to fire is the one counted in the
+ * Metrics.
+ */
+public enum MinorFilter {
+  /**
+   * Deletes the vertices of the graph too low in degree to be of use to a
+   * model of the minor, and suppresses the vertices of degree two when the
+   * minor has none, then compares the order and size of what is left.
+   */
+  DEGREE("degree"),
+
+  /**
+   * A minor without a cut vertex lies within a single block of the graph,
+   * so some block has to be as large as the minor.
+   */
+  BLOCK("block"),
+
+  /**
+   * A complete minor cannot be larger than the Hadwiger number of the
+   * graph, which is at most four for a planar graph and at most one more
+   * than its treewidth.
+   */
+  HADWIGER("hadwiger"),
+
+  /**
+   * A nonplanar minor cannot be a minor of a planar graph.
+   */
+  PLANARITY("planarity"),
+
+  /**
+   * Treewidth does not grow under minors, so a lower bound on the
+   * treewidth of the minor above an upper bound on that of the graph rules
+   * it out.
+   */
+  TREEWIDTH("treewidth");
+
+  private final String name;
+
+  private MinorFilter(String name) {
+    this.name = name;
+  }
+
+  /**
+   * The name the filter is reported under.
+   *
+   * @return A String name.
+   */
+  public String getName() {
+    return name;
+  }
+}
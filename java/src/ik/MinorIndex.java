@@ -0,0 +1,127 @@
+package ik;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The proper minors of a graph with at least a given number of edges, by
+ * canonical certificate, so that whether a graph is one of them is a
+ * lookup rather than a minor search.  Contracting or deleting an edge
+ * never adds edges, so the minors with enough edges are all reached from
+ * the graph through graphs with enough edges, and there are few of them
+ * when the bound is close to the size of the graph.
+ */
+public class MinorIndex {
+  private final Graph                 graph;
+  private final int                   minSize;
+  private final Set<GraphCertificate> minors;
+
+  /**
+   * Creates the index by enumerating the minors of the graph.
+   *
+   * @param graph The graph whose minors are indexed.
+   * @param minSize The number of edges a minor needs to be indexed.
+   */
+  public MinorIndex(Graph graph, int minSize) {
+    this.graph   = graph;
+    this.minSize = minSize;
+    this.minors  = new HashSet<GraphCertificate>();
+
+    Set<GraphCertificate> seen = new HashSet<GraphCertificate>();
+
+    seen.add(graph.canonicalCertificate());
+    enumerate(new ContractionState(graph), seen);
+  }
+
+  /**
+   * Determines whether the index can answer for a graph, which it can when
+   * the graph has enough edges.
+   *
+   * @param candidate The graph to look up.
+   * @return A boolean value indicating whether the index covers the graph.
+   */
+  public boolean covers(Graph candidate) {
+    return candidate.getSize() >= minSize;
+  }
+
+  /**
+   * Determines whether a graph the index covers is a proper minor of the
+   * indexed graph.
+   *
+   * @param candidate The graph to look up.
+   * @return A boolean value indicating whether the graph is isomorphic to
+   *         one of the proper minors.
+   * @throws IllegalArgumentException if the index does not cover the graph.
+   */
+  public boolean isProperMinor(Graph candidate)
+                              throws IllegalArgumentException {
+    if (!covers(candidate)) {
+      throw new IllegalArgumentException("Graph has fewer than " + minSize +
+                                         " edges: " + candidate.getName());
+    }
+
+    return candidate.getOrder() <= graph.getOrder() &&
+           candidate.getSize()  <  graph.getSize()  &&
+           minors.contains(candidate.canonicalCertificate());
+  }
+
+  /**
+   * The number of proper minors indexed.
+   *
+   * @return An integer count.
+   */
+  public int size() {
+    return minors.size();
+  }
+
+  /**
+   * Records every graph one contraction or deletion away from the graph of
+   * the state, and the minors of those not seen before.
+   */
+  private void enumerate(ContractionState state, Set<GraphCertificate> seen) {
+    Graph graph = state.getGraph();
+
+    // Losing an edge is only worth it if enough are left
+    if (graph.getSize() > minSize) {
+      for (int from = 0; from < graph.getOrder(); from++) {
+        for (int to = graph.nextNeighbor(from, from + 1); to >= 0;
+             to = graph.nextNeighbor(from, to + 1)) {
+          state.contractEdge(from, to);
+          visit(state, seen);
+          state.undo();
+
+          state.deleteEdge(from, to);
+          visit(state, seen);
+          state.undo();
+        }
+      }
+    }
+
+    for (int vertex = 0; vertex < graph.getOrder(); vertex++) {
+      if (graph.degree(vertex) == 0) {
+        state.deleteVertex(vertex);
+        visit(state, seen);
+        state.undo();
+      }
+    }
+  }
+
+  /**
+   * Indexes the graph of the state if it has enough edges, and goes on to
+   * its minors if it has not been seen before.
+   */
+  private void visit(ContractionState state, Set<GraphCertificate> seen) {
+    Graph graph = state.getGraph();
+
+    if (graph.getSize() < minSize) {
+      return;
+    }
+
+    GraphCertificate certificate = graph.canonicalCertificate();
+
+    if (seen.add(certificate)) {
+      minors.add(certificate);
+      enumerate(state, seen);
+    }
+  }
+}
@@ -0,0 +1,473 @@
+package ik;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Searches for a model of a pattern graph as a minor of a host graph: a
+ * branch set of host vertices for each pattern vertex, the branch sets
+ * disjoint and each connected, with a host edge between the branch sets of
+ * every pattern edge.  The host contains the pattern as a minor exactly
+ * when there is such a model, since contracting each branch set to a
+ * single vertex and deleting everything else leaves the pattern.
+ *
+ * The branch sets start out empty and grow one host vertex at a time, only
+ * ever by a vertex next to the set, so they stay connected.  Each step
+ * takes the pattern edge whose branch sets are not yet adjacent and which
+ * has the fewest ways forward, and tries growing either of its branch sets
+ * toward the other (or starting the empty one next to the other).  Any
+ * model can be reached this way, so the search is complete.  It gives up
+ * on a state when there are too few free vertices left for the empty
+ * branch sets, when some pattern edge can no longer be covered because no
+ * path of free vertices joins its branch sets, or when the same branch sets
+ * were reached before by another route and failed.  Once a vertex has been
+ * tried in a branch set and failed, its siblings do not try it there again.
+ */
+public class MinorModelMatcher {
+  // Failed states are remembered up to this many per search
+  private static final int MAX_REMEMBERED = 1 << 16;
+
+  private final long[][]     hostRows;
+  private final int          hostOrder;
+  private final int          hostSize;
+  private final int          patternOrder;
+  private final int          patternSize;
+  private final int[]        patternDegree;
+  private final int[]        edgeFrom;
+  private final int[]        edgeTo;
+  private final int          words;
+  private final long[][]     branch;
+  private final long[]       free;
+  private final long[][][]   neighborhoods;
+  private final long[][]     choices;
+  private final long[][]     forbidden;
+  private final long[][][]   saved;
+  private final long[]       path;
+  private final long[]       frontier;
+  private final Set<State>   failed;
+  private final SearchBudget budget;
+  private       int          empty;
+
+  /**
+   * A set of branch sets, as a key for the failed states.
+   */
+  private static final class State {
+    private final long[] bits;
+    private final int    hash;
+
+    State(long[][] branch) {
+      int words = branch.length == 0 ? 0 : branch[0].length;
+
+      this.bits = new long[branch.length * words];
+      for (int i = 0; i < branch.length; i++) {
+        System.arraycopy(branch[i], 0, bits, i * words, words);
+      }
+      this.hash = Arrays.hashCode(bits);
+    }
+
+    public boolean equals(Object other) {
+      return other instanceof State &&
+             Arrays.equals(bits, ((State)other).bits);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Creates a matcher for the pattern as a minor of the host.
+   *
+   * @param host    The graph searched.
+   * @param pattern The graph searched for.
+   */
+  public MinorModelMatcher(Graph host, Graph pattern) {
+    this.hostRows      = host.adjacencyRows();
+    this.hostOrder     = host.getOrder();
+    this.hostSize      = host.getSize();
+    this.patternOrder  = pattern.getOrder();
+    this.patternSize   = pattern.getSize();
+    this.patternDegree = new int[patternOrder];
+    this.edgeFrom      = new int[patternSize];
+    this.edgeTo        = new int[patternSize];
+    this.words         = (hostOrder + 63) >>> 6;
+    this.branch        = new long[patternOrder][words];
+    this.free          = new long[words];
+    this.neighborhoods = new long[hostOrder + 1][patternOrder][words];
+    this.choices       = new long[hostOrder + 1][words];
+    this.forbidden     = new long[patternOrder][words];
+    this.saved         = new long[hostOrder + 1][patternOrder][words];
+    this.path          = new long[words];
+    this.frontier      = new long[words];
+    this.failed        = new HashSet<State>();
+    this.budget        = SearchBudget.current();
+    this.empty         = patternOrder;
+
+    Graph.EdgeIterator edge = pattern.edgeIterator();
+    for (int i = 0; edge.next(); i++) {
+      edgeFrom[i] = edge.from();
+      edgeTo[i]   = edge.to();
+      patternDegree[edge.from()]++;
+      patternDegree[edge.to()]++;
+    }
+
+    for (int vertex = 0; vertex < hostOrder; vertex++) {
+      free[vertex >>> 6] |= 1L << vertex;
+    }
+  }
+
+  /**
+   * Determines whether the host contains the pattern as a minor.
+   *
+   * @return A boolean value indicating whether a model exists.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public boolean matches() {
+    if (patternOrder > hostOrder || patternSize > hostSize) {
+      return false;
+    }
+
+    return search(0);
+  }
+
+  /**
+   * Grows the branch sets from the current state.
+   *
+   * @param depth The number of host vertices in the branch sets.
+   * @return A boolean value indicating whether the branch sets can be grown
+   *         into a model.
+   */
+  private boolean search(int depth) {
+    Metrics.countMinorNode();
+
+    if (budget != null) {
+      budget.charge();
+    }
+
+    if (count(free) < empty) {
+      return false;
+    }
+
+    long[][] neighbors = neighborhoods[depth];
+    for (int u = 0; u < patternOrder; u++) {
+      neighborhood(branch[u], neighbors[u]);
+    }
+
+    // Find the uncovered pattern edge with the fewest ways forward
+    int best        = -1;
+    int bestOptions = Integer.MAX_VALUE;
+
+    for (int i = 0; i < patternSize; i++) {
+      int     u      = edgeFrom[i];
+      int     v      = edgeTo[i];
+      boolean uEmpty = isEmpty(branch[u]);
+      boolean vEmpty = isEmpty(branch[v]);
+
+      if (uEmpty && vEmpty) {
+        continue;
+      }
+
+      if (!uEmpty && !vEmpty) {
+        if (intersects(neighbors[u], branch[v])) {
+          continue;
+        }
+        if (!joined(neighbors[u], branch[v])) {
+          return false;
+        }
+      }
+
+      // Count the moves growToward tries for the edge.  A model whose
+      // branch sets contain the current ones covers the edge by holding a
+      // free neighbor of a nonempty branch set either in that branch set
+      // or, if the other branch set is empty, in the other one.  A vertex
+      // forbidden in a branch set was tried there from this state or an
+      // earlier one on the way here and no model held it, so with no move
+      // left no model contains these branch sets, and the state can be
+      // remembered as failed whatever route reaches it.
+      int options;
+
+      if (uEmpty) {
+        options = countAllowed(neighbors[v], u) +
+                  countAllowed(neighbors[v], v);
+      } else if (vEmpty) {
+        options = countAllowed(neighbors[u], u) +
+                  countAllowed(neighbors[u], v);
+      } else {
+        options = countAllowed(neighbors[u], u) +
+                  countAllowed(neighbors[v], v);
+      }
+
+      if (options == 0) {
+        return false;
+      }
+
+      if (options < bestOptions) {
+        best        = i;
+        bestOptions = options;
+      }
+    }
+
+    if (best < 0) {
+      saveForbidden(depth);
+      boolean found = startComponent(depth);
+      restoreForbidden(depth);
+
+      return found;
+    }
+
+    State state = null;
+    if (depth > 0) {
+      state = new State(branch);
+
+      if (failed.contains(state)) {
+        return false;
+      }
+    }
+
+    int u = edgeFrom[best];
+    int v = edgeTo[best];
+
+    saveForbidden(depth);
+    boolean found = (!isEmpty(branch[u]) && growToward(depth, u, v)) ||
+                    (!isEmpty(branch[v]) && growToward(depth, v, u));
+    restoreForbidden(depth);
+
+    if (found) {
+      return true;
+    }
+
+    if (state != null && failed.size() < MAX_REMEMBERED) {
+      failed.add(state);
+    }
+
+    return false;
+  }
+
+  /**
+   * Covers the pattern edge from u to v by adding a free neighbor of the
+   * branch set of u either to that branch set or, if the branch set of v is
+   * empty, to the branch set of v.
+   */
+  private boolean growToward(int depth, int u, int v) {
+    long[]  candidates = choices[depth];
+    boolean start      = isEmpty(branch[v]);
+
+    for (int word = 0; word < words; word++) {
+      candidates[word] = neighborhoods[depth][u][word] & free[word];
+    }
+
+    for (int w = nextBit(candidates, 0); w >= 0;
+         w = nextBit(candidates, w + 1)) {
+      if (start && tryVertex(depth, v, w)) {
+        return true;
+      }
+      if (tryVertex(depth, u, w)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Every pattern edge with a nonempty branch set is covered, so either
+   * the model is complete, or a pattern vertex none of whose neighbors has
+   * a branch set yet is started from any free vertex.
+   */
+  private boolean startComponent(int depth) {
+    int start    = -1;
+    int isolated = 0;
+
+    for (int u = 0; u < patternOrder; u++) {
+      if (isEmpty(branch[u])) {
+        if (patternDegree[u] == 0) {
+          isolated++;
+        } else if (start < 0 || patternDegree[u] > patternDegree[start]) {
+          start = u;
+        }
+      }
+    }
+
+    // Isolated pattern vertices can take any free vertices
+    if (start < 0) {
+      return count(free) >= isolated;
+    }
+
+    long[] candidates = choices[depth];
+    System.arraycopy(free, 0, candidates, 0, words);
+
+    for (int w = nextBit(candidates, 0); w >= 0;
+         w = nextBit(candidates, w + 1)) {
+      if (count(hostRows[w]) > 0 && tryVertex(depth, start, w)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Adds the host vertex to the branch set of the pattern vertex, searches
+   * on, and takes it back out.  If no model was found, then no model with
+   * the branch sets so far has the host vertex in that branch set, so it
+   * is forbidden there until the search backs out of the current state.
+   */
+  private boolean tryVertex(int depth, int u, int w) {
+    int  word = w >>> 6;
+    long bit  = 1L << w;
+
+    if ((forbidden[u][word] & bit) != 0) {
+      return false;
+    }
+
+    if (isEmpty(branch[u])) {
+      empty--;
+    }
+    branch[u][word] |= bit;
+    free[word]      &= ~bit;
+
+    boolean found = search(depth + 1);
+
+    branch[u][word] &= ~bit;
+    free[word]      |= bit;
+    if (isEmpty(branch[u])) {
+      empty++;
+    }
+
+    if (!found) {
+      forbidden[u][word] |= bit;
+    }
+
+    return found;
+  }
+
+  /**
+   * Determines whether a path of free vertices leads from the neighborhood
+   * of one branch set to a vertex next to the other.
+   */
+  private boolean joined(long[] neighbors, long[] target) {
+    boolean any = false;
+
+    for (int word = 0; word < words; word++) {
+      path[word] = neighbors[word] & free[word];
+      any       |= path[word] != 0;
+    }
+
+    while (any) {
+      neighborhood(path, frontier);
+
+      if (intersects(frontier, target)) {
+        return true;
+      }
+
+      any = false;
+      for (int word = 0; word < words; word++) {
+        long grown = frontier[word] & free[word] & ~path[word];
+
+        path[word] |= grown;
+        any        |= grown != 0;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Fills neighbors with the vertices next to some vertex of the set.
+   */
+  private void neighborhood(long[] set, long[] neighbors) {
+    Arrays.fill(neighbors, 0);
+
+    for (int v = nextBit(set, 0); v >= 0; v = nextBit(set, v + 1)) {
+      long[] row = hostRows[v];
+
+      for (int word = 0; word < words; word++) {
+        neighbors[word] |= row[word];
+      }
+    }
+  }
+
+  /**
+   * The number of free vertices in the set that the branch set of the
+   * pattern vertex may still take.
+   */
+  private int countAllowed(long[] set, int u) {
+    int count = 0;
+
+    for (int word = 0; word < words; word++) {
+      count += Long.bitCount(set[word] & free[word] & ~forbidden[u][word]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Remembers the forbidden vertices on entering a state.
+   */
+  private void saveForbidden(int depth) {
+    for (int u = 0; u < patternOrder; u++) {
+      System.arraycopy(forbidden[u], 0, saved[depth][u], 0, words);
+    }
+  }
+
+  /**
+   * Forgets the vertices forbidden since entering a state, which hold only
+   * for the branch sets of that state.
+   */
+  private void restoreForbidden(int depth) {
+    for (int u = 0; u < patternOrder; u++) {
+      System.arraycopy(saved[depth][u], 0, forbidden[u], 0, words);
+    }
+  }
+
+  private boolean intersects(long[] a, long[] b) {
+    for (int word = 0; word < words; word++) {
+      if ((a[word] & b[word]) != 0) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isEmpty(long[] set) {
+    for (int word = 0; word < set.length; word++) {
+      if (set[word] != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int count(long[] set) {
+    int count = 0;
+
+    for (int word = 0; word < set.length; word++) {
+      count += Long.bitCount(set[word]);
+    }
+
+    return count;
+  }
+
+  private static int nextBit(long[] set, int start) {
+    int word = start >>> 6;
+
+    if (word >= set.length) {
+      return -1;
+    }
+
+    long bits = set[word] & (-1L << start);
+
+    while (bits == 0) {
+      if (++word == set.length) {
+        return -1;
+      }
+      bits = set[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+}
@@ -1,5 +1,8 @@
 package ik;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 /**
  * If a graph is a proper minor (not isomorphic) to a graph that is minor
  * minimal with respect to the property of intrinsic knotting, then by 
@@ -7,25 +10,73 @@ package ik;
  * is known to NOT exhibit the same property and thus is not intrinsically
  * knotted.  This classification test uses this logic to determine if a graph
  * is not IK.
+ *
+ * The proper minors of the known graph with enough edges to get this far
+ * down the chain are indexed the first time the test runs, and a graph
+ * with that many edges is looked up rather than searched for.
  */
 public class MinorOfClassification implements IKClassification { 
-  private Graph minorMinimalIKGraph;
+  // Graphs with fewer edges are decided by AbsoluteSizeClassification, so
+  // only the minors with at least this many are indexed
+  private static final int INDEXED_SIZE = 15;
+
+  // The indexes built so far, shared by the tests of the same graph
+  private static final Map<Graph, MinorIndex> INDEXES =
+    new IdentityHashMap<Graph, MinorIndex>();
+
+  private Graph       minorMinimalIKGraph;
+  private MinorEngine engine;
   
   public MinorOfClassification(Graph minorMinimalIKGraph) {
+    this(minorMinimalIKGraph, MinorEngine.CONTRACTION);
+  }
+
+  /**
+   * Creates a classification that searches the minor minimal IK graph with
+   * the given engine when the index cannot answer.
+   *
+   * @param minorMinimalIKGraph The known minor minimal IK graph.
+   * @param engine The MinorEngine to search with.
+   */
+  public MinorOfClassification(Graph minorMinimalIKGraph, MinorEngine engine) {
     this.minorMinimalIKGraph = minorMinimalIKGraph;
+    this.engine              = engine;
   }
   
   public String classify(Graph subgraph) {
-    String result = CANNOT_DETERMINE_IK;
-    
-    if (!minorMinimalIKGraph.isIsomorphicTo(subgraph) &&
-         minorMinimalIKGraph.containsMinor(subgraph)) {
+    String     result = CANNOT_DETERMINE_IK;
+    MinorIndex index  = getIndex();
+
+    if (index.covers(subgraph)) {
+      if (index.isProperMinor(subgraph)) {
+        result = IS_NOT_IK;
+      }
+    } else if (!minorMinimalIKGraph.isIsomorphicTo(subgraph) &&
+               minorMinimalIKGraph.containsMinor(subgraph,
+                                                 MinorSearchCache.getShared(),
+                                                 engine)) {
       result = IS_NOT_IK;
     }
 
     return result;
   }
   
+  /**
+   * The index of the proper minors, built on first use.
+   */
+  private MinorIndex getIndex() {
+    synchronized (INDEXES) {
+      MinorIndex index = INDEXES.get(minorMinimalIKGraph);
+
+      if (index == null) {
+        index = new MinorIndex(minorMinimalIKGraph, INDEXED_SIZE);
+        INDEXES.put(minorMinimalIKGraph, index);
+      }
+
+      return index;
+    }
+  }
+
   public String getName() {
     return "MinorOf"+minorMinimalIKGraph.getName()+"Classification";
   }
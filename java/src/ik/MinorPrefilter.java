@@ -0,0 +1,533 @@
+package ik;
+
+import java.util.Arrays;
+
+/**
+ * Proves in polynomial time that a graph cannot contain some minors, so
+ * that the exponential minor search is never started for them.  The
+ * filters are the MinorFilters, run cheapest first.
+ *
+ * They all look at the graph after a reduction that keeps every minor of
+ * the minimum degree of the one tested for.  A vertex of degree at most
+ * one can only hang off the end of a branch set, so it is deleted when
+ * the minor has minimum degree two or more.  A vertex of degree two is no
+ * branch set by itself when the minor has minimum degree three or more,
+ * so it is contracted into a neighbour, which any model survives.  The
+ * reductions of the graph, and their blocks, planarity and treewidth, are
+ * worked out as the filters first need them and shared by every minor
+ * tested against the graph.
+ */
+class MinorPrefilter {
+  // The graph is reduced according to the minimum degree of the minor, up
+  // to three
+  private static final int LEVELS = 4;
+
+  private final Graph     graph;
+  private final Graph[]   reduced;
+  private final Blocks[]  blocks;
+  private final Boolean[] planar;
+  private final int[]     treewidth;
+
+  /**
+   * The blocks of a graph, its maximal subgraphs without a cut vertex,
+   * found by the depth first search of Hopcroft and Tarjan.  An isolated
+   * vertex is in no block.
+   */
+  private static final class Blocks {
+    final int[]            orders;
+    final int[]            sizes;
+    int                    count;
+
+    private final long[][] rows;
+    private final int[]    number;
+    private final int[]    low;
+    private final int[]    stack;
+    private final long[]   members;
+    private       int      visited;
+    private       int      top;
+
+    Blocks(Graph graph) {
+      int order = graph.getOrder();
+
+      this.rows    = graph.adjacencyRows();
+      this.orders  = new int[order];
+      this.sizes   = new int[order];
+      this.number  = new int[order];
+      this.low     = new int[order];
+      this.stack   = new int[order];
+      this.members = new long[(order + 63) >>> 6];
+      this.count   = 0;
+      this.visited = 0;
+      this.top     = 0;
+
+      for (int v = 0; v < order; v++) {
+        if (number[v] == 0) {
+          visit(v);
+          top = 0;
+        }
+      }
+    }
+
+    private void visit(int v) {
+      number[v]    = ++visited;
+      low[v]       = number[v];
+      stack[top++] = v;
+
+      for (int w = nextBit(rows[v], 0); w >= 0; w = nextBit(rows[v], w + 1)) {
+        if (number[w] == 0) {
+          visit(w);
+          low[v] = Math.min(low[v], low[w]);
+
+          // v separates w and what lies below it from the rest
+          if (low[w] >= number[v]) {
+            int u;
+
+            Arrays.fill(members, 0);
+            setBit(members, v);
+            orders[count] = 1;
+            do {
+              u = stack[--top];
+              setBit(members, u);
+              orders[count]++;
+            } while (u != w);
+
+            for (u = nextBit(members, 0); u >= 0; u = nextBit(members, u + 1)) {
+              sizes[count] += count(rows[u], members);
+            }
+            sizes[count] /= 2;
+            count++;
+          }
+        } else {
+          low[v] = Math.min(low[v], number[w]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a prefilter for minors of the graph.
+   *
+   * @param graph The Graph the minors are searched for in.
+   */
+  MinorPrefilter(Graph graph) {
+    this.graph     = graph;
+    this.reduced   = new Graph[LEVELS];
+    this.blocks    = new Blocks[LEVELS];
+    this.planar    = new Boolean[LEVELS];
+    this.treewidth = new int[LEVELS];
+
+    Arrays.fill(treewidth, -1);
+  }
+
+  /**
+   * Filters the pending minors, counting in the Metrics the filter that
+   * ruled out each one that is.  Minors larger than the graph itself are
+   * left for the search to pass over.
+   *
+   * @param minors The Graphs to be searched for.
+   * @param pending The minors still to be searched for, one bit each.
+   * @return The pending minors not ruled out, one bit each.
+   */
+  long candidates(Graph[] minors, long pending) {
+    for (long left = pending; left != 0; left &= left - 1) {
+      int i = Long.numberOfTrailingZeros(left);
+
+      if (graph.getOrder() < minors[i].getOrder() ||
+          graph.getSize()  < minors[i].getSize()) {
+        continue;
+      }
+
+      MinorFilter filter = reject(minors[i]);
+
+      if (filter != null) {
+        Metrics.countFilterRejection(filter);
+        pending &= ~(1L << i);
+      }
+    }
+
+    return pending;
+  }
+
+  /**
+   * Runs the filters against a minor.
+   *
+   * @param minor The Graph to be searched for.
+   * @return The first MinorFilter that proves the graph does not contain
+   *         the minor, or null if none of them does.
+   */
+  MinorFilter reject(Graph minor) {
+    int   level = level(minor);
+    Graph host  = reduced(level);
+    int   order = minor.getOrder();
+
+    if (host.getOrder() < order || host.getSize() < minor.getSize()) {
+      return MinorFilter.DEGREE;
+    }
+
+    if (isBiconnected(minor) && !hasBlock(level, minor)) {
+      return MinorFilter.BLOCK;
+    }
+
+    // A complete minor has treewidth one less than its order, which the
+    // Hadwiger bound already takes in
+    if (minor.getSize() == order * (order - 1) / 2) {
+      if ((order > 4 && isPlanar(level)) || order > treewidth(level) + 1) {
+        return MinorFilter.HADWIGER;
+      }
+
+      return null;
+    }
+
+    if (isPlanar(level) && !minor.isPlanar()) {
+      return MinorFilter.PLANARITY;
+    }
+
+    if (treewidthLowerBound(minor) > treewidth(level)) {
+      return MinorFilter.TREEWIDTH;
+    }
+
+    return null;
+  }
+
+  /**
+   * The level of reduction a minor allows, its minimum degree up to three.
+   */
+  private static int level(Graph minor) {
+    long[][] rows  = minor.adjacencyRows();
+    int      level = LEVELS - 1;
+
+    for (int v = 0; v < minor.getOrder() && level > 0; v++) {
+      level = Math.min(level, count(rows[v]));
+    }
+
+    return level;
+  }
+
+  /**
+   * The graph reduced for minors of the given level.
+   */
+  private Graph reduced(int level) {
+    if (reduced[level] == null) {
+      reduced[level] = level == 0 ? graph : reduce(graph, level);
+    }
+
+    return reduced[level];
+  }
+
+  /**
+   * Whether some block of the reduced graph is at least as large as the
+   * minor.
+   */
+  private boolean hasBlock(int level, Graph minor) {
+    if (blocks[level] == null) {
+      blocks[level] = new Blocks(reduced(level));
+    }
+
+    Blocks found = blocks[level];
+
+    for (int i = 0; i < found.count; i++) {
+      if (found.orders[i] >= minor.getOrder() &&
+          found.sizes[i]  >= minor.getSize()) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Whether the reduced graph is planar.
+   */
+  private boolean isPlanar(int level) {
+    if (planar[level] == null) {
+      planar[level] = Boolean.valueOf(reduced(level).isPlanar());
+    }
+
+    return planar[level].booleanValue();
+  }
+
+  /**
+   * An upper bound on the treewidth of the reduced graph.
+   */
+  private int treewidth(int level) {
+    if (treewidth[level] < 0) {
+      treewidth[level] = treewidthUpperBound(reduced(level));
+    }
+
+    return treewidth[level];
+  }
+
+  /**
+   * Whether a graph is connected, has at least three vertices and has no
+   * cut vertex.
+   */
+  private static boolean isBiconnected(Graph graph) {
+    if (graph.getOrder() < 3) {
+      return false;
+    }
+
+    Blocks found = new Blocks(graph);
+
+    return found.count == 1 && found.orders[0] == graph.getOrder();
+  }
+
+  /**
+   * Reduces a graph for minors of the given level: deletes the vertices of
+   * degree less than the level, up to one, and if the level is three
+   * contracts each vertex of degree two into a neighbour, until no more
+   * can be.  What is left is a minor of the graph that contains every
+   * minor of the level the graph does.
+   */
+  private static Graph reduce(Graph graph, int level) {
+    int       order   = graph.getOrder();
+    long[][]  rows    = copyRows(graph);
+    int[]     degree  = new int[order];
+    boolean[] deleted = new boolean[order];
+    int       least   = Math.min(level, 2);
+    int       kept    = order;
+    boolean   changed = true;
+
+    for (int v = 0; v < order; v++) {
+      degree[v] = count(rows[v]);
+    }
+
+    while (changed) {
+      changed = false;
+
+      for (int v = 0; v < order; v++) {
+        if (deleted[v] || (degree[v] >= least &&
+                           (level < 3 || degree[v] != 2))) {
+          continue;
+        }
+
+        int a = nextBit(rows[v], 0);
+        int b = a < 0 ? -1 : nextBit(rows[v], a + 1);
+
+        for (int u = a; u >= 0; u = nextBit(rows[v], u + 1)) {
+          clearBit(rows[u], v);
+          degree[u]--;
+        }
+
+        // Contracting a vertex of degree two joins its neighbours
+        if (degree[v] == 2 && !testBit(rows[a], b)) {
+          setBit(rows[a], b);
+          setBit(rows[b], a);
+          degree[a]++;
+          degree[b]++;
+        }
+
+        deleted[v] = true;
+        changed    = true;
+        kept--;
+      }
+    }
+
+    Graph reducedGraph = new Graph(graph.getName(), kept);
+    int[] labels       = new int[order];
+
+    for (int v = 0, label = 0; v < order; v++) {
+      labels[v] = deleted[v] ? -1 : label++;
+    }
+
+    for (int v = 0; v < order; v++) {
+      if (!deleted[v]) {
+        for (int u = nextBit(rows[v], v + 1); u >= 0;
+             u = nextBit(rows[v], u + 1)) {
+          reducedGraph.addEdge(labels[v], labels[u]);
+        }
+      }
+    }
+
+    return reducedGraph;
+  }
+
+  /**
+   * An upper bound on the treewidth of a graph: the width of the
+   * elimination ordering that always eliminates the vertex whose
+   * neighbours need the fewest edges added to make them a clique.
+   */
+  private static int treewidthUpperBound(Graph graph) {
+    int      order = graph.getOrder();
+    long[][] rows  = copyRows(graph);
+    long[]   left  = new long[(order + 63) >>> 6];
+    int      width = 0;
+
+    for (int v = 0; v < order; v++) {
+      setBit(left, v);
+    }
+
+    for (int step = 0; step < order; step++) {
+      int best       = -1;
+      int bestFill   = Integer.MAX_VALUE;
+      int bestDegree = Integer.MAX_VALUE;
+
+      for (int v = nextBit(left, 0); v >= 0; v = nextBit(left, v + 1)) {
+        int degree = count(rows[v]);
+        int fill   = 0;
+
+        for (int u = nextBit(rows[v], 0); u >= 0; u = nextBit(rows[v], u + 1)) {
+          fill += degree - 1 - count(rows[u], rows[v]);
+        }
+
+        if (fill < bestFill || (fill == bestFill && degree < bestDegree)) {
+          best       = v;
+          bestFill   = fill;
+          bestDegree = degree;
+        }
+      }
+
+      width = Math.max(width, bestDegree);
+
+      // The neighbours of the eliminated vertex become a clique
+      for (int u = nextBit(rows[best], 0); u >= 0;
+           u = nextBit(rows[best], u + 1)) {
+        for (int word = 0; word < left.length; word++) {
+          rows[u][word] |= rows[best][word];
+        }
+        clearBit(rows[u], u);
+        clearBit(rows[u], best);
+      }
+
+      clearBit(left, best);
+    }
+
+    return width;
+  }
+
+  /**
+   * A lower bound on the treewidth of a graph, the contraction degeneracy
+   * bound of Bodlaender and Koster: the largest minimum degree met while
+   * repeatedly contracting a vertex of minimum degree into its neighbour of
+   * least degree.  Each graph reached is a minor, and a graph's treewidth
+   * is at least its minimum degree.
+   */
+  private static int treewidthLowerBound(Graph graph) {
+    int      order = graph.getOrder();
+    long[][] rows  = copyRows(graph);
+    long[]   left  = new long[(order + 63) >>> 6];
+    int      bound = 0;
+
+    for (int v = 0; v < order; v++) {
+      setBit(left, v);
+    }
+
+    for (int remaining = order; remaining > 1; remaining--) {
+      int least       = -1;
+      int leastDegree = Integer.MAX_VALUE;
+
+      for (int v = nextBit(left, 0); v >= 0; v = nextBit(left, v + 1)) {
+        int degree = count(rows[v]);
+
+        if (degree < leastDegree) {
+          least       = v;
+          leastDegree = degree;
+        }
+      }
+
+      bound = Math.max(bound, leastDegree);
+
+      int into       = -1;
+      int intoDegree = Integer.MAX_VALUE;
+
+      for (int u = nextBit(rows[least], 0); u >= 0;
+           u = nextBit(rows[least], u + 1)) {
+        int degree = count(rows[u]);
+
+        if (degree < intoDegree) {
+          into       = u;
+          intoDegree = degree;
+        }
+      }
+
+      for (int u = nextBit(rows[least], 0); u >= 0;
+           u = nextBit(rows[least], u + 1)) {
+        clearBit(rows[u], least);
+
+        if (u != into) {
+          setBit(rows[u], into);
+          setBit(rows[into], u);
+        }
+      }
+
+      clearBit(left, least);
+    }
+
+    return bound;
+  }
+
+  /**
+   * A copy of the adjacency rows of a graph.
+   */
+  private static long[][] copyRows(Graph graph) {
+    long[][] rows = graph.adjacencyRows();
+    long[][] copy = new long[graph.getOrder()][];
+
+    for (int v = 0; v < copy.length; v++) {
+      copy[v] = rows[v].clone();
+    }
+
+    return copy;
+  }
+
+  /**
+   * The number of bits set in a row.
+   */
+  private static int count(long[] row) {
+    int count = 0;
+
+    for (int word = 0; word < row.length; word++) {
+      count += Long.bitCount(row[word]);
+    }
+
+    return count;
+  }
+
+  /**
+   * The number of bits set in both rows.
+   */
+  private static int count(long[] row, long[] other) {
+    int count = 0;
+
+    for (int word = 0; word < row.length; word++) {
+      count += Long.bitCount(row[word] & other[word]);
+    }
+
+    return count;
+  }
+
+  private static boolean testBit(long[] row, int vertex) {
+    return (row[vertex >>> 6] & (1L << vertex)) != 0;
+  }
+
+  private static void setBit(long[] row, int vertex) {
+    row[vertex >>> 6] |= 1L << vertex;
+  }
+
+  private static void clearBit(long[] row, int vertex) {
+    row[vertex >>> 6] &= ~(1L << vertex);
+  }
+
+  /**
+   * Finds the first set bit in a row at or after the starting vertex.
+   *
+   * @return The index of the bit, or -1 if there is none.
+   */
+  private static int nextBit(long[] row, int start) {
+    int word = start >>> 6;
+
+    if (word >= row.length) {
+      return -1;
+    }
+
+    long bits = row[word] & (-1L << start);
+
+    while (bits == 0) {
+      if (++word == row.length) {
+        return -1;
+      }
+      bits = row[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+}
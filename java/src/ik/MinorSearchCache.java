@@ -0,0 +1,295 @@
+package ik;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A transposition table for the minor search.  Contracting the edges of a
+ * graph in different orders arrives at the same intermediate graphs over
+ * and over, so the answer to "does this graph contain that minor" is
+ * remembered here and looked up before the search is repeated.
+ *
+ * Entries are keyed by the canonical certificate of the searched graph
+ * together with that of the minor, so isomorphic intermediate graphs share
+ * one entry no matter how they were reached.  Entries are evicted least
+ * recently used first once the estimated memory of the table exceeds its
+ * budget.  A single shared table is used by default so that results
+ * survive from one classification test to the next; its budget in bytes
+ * is read from the system property "ik.minorCache.bytes".  The table is
+ * split into independently locked segments so that it can be shared by
+ * several classification threads.
+ */
+public class MinorSearchCache {
+  public  static final long   DEFAULT_BUDGET  = 64L * 1024 * 1024;
+  public  static final String BUDGET_PROPERTY = "ik.minorCache.bytes";
+
+  // The map entry, key object and boxed value around the two certificates
+  private static final int ENTRY_OVERHEAD = 96;
+
+  // Independently locked parts of the table, so that concurrent searches
+  // rarely wait on each other
+  private static final int SEGMENTS = 16;
+
+  private static final MinorSearchCache SHARED =
+    new MinorSearchCache(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+
+  private final Segment[] segments;
+
+  /**
+   * Creates a new, empty table.
+   *
+   * @param budget The approximate number of bytes the table may occupy.  A
+   *               budget of zero disables the table.
+   */
+  public MinorSearchCache(long budget) {
+    this.segments = new Segment[SEGMENTS];
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(budget / SEGMENTS);
+    }
+  }
+
+  /**
+   * The table used by Graph.containsMinor when none is supplied.
+   *
+   * @return The shared MinorSearchCache.
+   */
+  public static MinorSearchCache getShared() {
+    return SHARED;
+  }
+
+  /**
+   * Looks up a previous result.
+   *
+   * @param graph The certificate of the graph that was searched.
+   * @param minor The certificate of the minor that was searched for.
+   * @return Boolean.TRUE or Boolean.FALSE if the answer is known, or null
+   *         if it is not.
+   */
+  public Boolean lookup(GraphCertificate graph, GraphCertificate minor) {
+    Key key = new Key(graph, minor);
+
+    return segmentFor(key).lookup(key);
+  }
+
+  /**
+   * Records the result of a search, evicting the least recently used
+   * results if the table has grown past its budget.
+   *
+   * @param graph The certificate of the graph that was searched.
+   * @param minor The certificate of the minor that was searched for.
+   * @param containsMinor Whether or not the graph contains the minor.
+   */
+  public void store(GraphCertificate graph,
+                    GraphCertificate minor,
+                    boolean          containsMinor) {
+    Key key = new Key(graph, minor);
+
+    segmentFor(key).store(key, containsMinor);
+  }
+
+  /**
+   * Changes the memory budget, evicting results if necessary.
+   *
+   * @param budget The approximate number of bytes the table may occupy.
+   */
+  public void setBudget(long budget) {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i].setBudget(budget / SEGMENTS);
+    }
+  }
+
+  /**
+   * The approximate number of bytes the table may occupy.
+   *
+   * @return A long number of bytes.
+   */
+  public long getBudget() {
+    long budget = 0;
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      budget += segments[i].getBudget();
+    }
+
+    return budget;
+  }
+
+  /**
+   * The number of results currently remembered.
+   *
+   * @return An integer count.
+   */
+  public int size() {
+    int size = 0;
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      size += segments[i].size();
+    }
+
+    return size;
+  }
+
+  /**
+   * The number of lookups that found a result.
+   *
+   * @return A long count.
+   */
+  public long getHits() {
+    long hits = 0;
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      hits += segments[i].getHits();
+    }
+
+    return hits;
+  }
+
+  /**
+   * The number of lookups that did not find a result.
+   *
+   * @return A long count.
+   */
+  public long getMisses() {
+    long misses = 0;
+
+    for (int i = 0; i < SEGMENTS; i++) {
+      misses += segments[i].getMisses();
+    }
+
+    return misses;
+  }
+
+  /**
+   * Forgets every result.
+   */
+  public void clear() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i].clear();
+    }
+  }
+
+  /**
+   * The segment responsible for the key.
+   */
+  private Segment segmentFor(Key key) {
+    int hash = key.hashCode();
+
+    return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+  }
+
+  /**
+   * One independently locked, least recently used ordered part of the
+   * table.
+   */
+  private static final class Segment {
+    private final LinkedHashMap<Key, Boolean> entries;
+    private       long                        budget;
+    private       long                        footprint;
+    private       long                        hits;
+    private       long                        misses;
+
+    Segment(long budget) {
+      this.entries = new LinkedHashMap<Key, Boolean>(64, 0.75f, true);
+      this.budget  = budget;
+    }
+
+    synchronized Boolean lookup(Key key) {
+      if (budget <= 0) {
+        return null;
+      }
+
+      Boolean result = entries.get(key);
+
+      if (result == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+
+      return result;
+    }
+
+    synchronized void store(Key key, boolean containsMinor) {
+      if (budget <= 0) {
+        return;
+      }
+
+      if (entries.put(key, Boolean.valueOf(containsMinor)) == null) {
+        footprint += key.footprint();
+        evict();
+      }
+    }
+
+    synchronized void setBudget(long budget) {
+      this.budget = budget;
+      evict();
+    }
+
+    synchronized long getBudget() {
+      return budget;
+    }
+
+    synchronized int size() {
+      return entries.size();
+    }
+
+    synchronized long getHits() {
+      return hits;
+    }
+
+    synchronized long getMisses() {
+      return misses;
+    }
+
+    synchronized void clear() {
+      entries.clear();
+      footprint = 0;
+    }
+
+    /**
+     * Removes the least recently used results until the segment fits
+     * within its budget.
+     */
+    private void evict() {
+      Iterator<Map.Entry<Key, Boolean>> iterator =
+        entries.entrySet().iterator();
+
+      while (footprint > budget && iterator.hasNext()) {
+        footprint -= iterator.next().getKey().footprint();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * The pair of certificates identifying one search.
+   */
+  private static final class Key {
+    private final GraphCertificate graph;
+    private final GraphCertificate minor;
+
+    Key(GraphCertificate graph, GraphCertificate minor) {
+      this.graph = graph;
+      this.minor = minor;
+    }
+
+    int footprint() {
+      return ENTRY_OVERHEAD + graph.footprint() + minor.footprint();
+    }
+
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key)other;
+
+      return graph.equals(key.graph) && minor.equals(key.minor);
+    }
+
+    public int hashCode() {
+      return 31 * graph.hashCode() + minor.hashCode();
+    }
+  }
+}
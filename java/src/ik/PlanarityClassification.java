@@ -1,7 +1,10 @@
 package ik;
 
-import static ik.GraphConstants.K33;
-import static ik.GraphConstants.K5;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * It was proven by Blain, Bowlin, Fleming et al. that if a graph is formed 
@@ -9,20 +12,88 @@ import static ik.GraphConstants.K5;
  * intrinsically knotted.  This classification tests this logic.
  */
 public class PlanarityClassification implements IKClassification {
+  private final boolean parallel;
+
+  /**
+   * A search for the second vertex of a pair, given the first, run as a
+   * ForkJoinPool task alongside those for the other first vertices.
+   */
+  private static final class PairTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final long[][]      rows;
+    private final int           order;
+    private final int           first;
+    private final AtomicBoolean found;
+
+    PairTask(long[][] rows, int order, int first, AtomicBoolean found) {
+      this.rows  = rows;
+      this.order = order;
+      this.first = first;
+      this.found = found;
+    }
+
+    protected void compute() {
+      if (completesPair(new PlanarityTester(order), rows,
+                        new long[(order + 63) >>> 6], first, found)) {
+        found.set(true);
+      }
+    }
+  }
+
+  public PlanarityClassification() {
+    this(false);
+  }
+
+  /**
+   * Creates the classification, which may search for the pair of vertices
+   * in parallel.  A parallel search tries each first vertex of the pair as
+   * a separate ForkJoinPool task, and all of them stop as soon as one finds
+   * a pair.
+   *
+   * @param parallel Whether to spread the search across a ForkJoinPool.
+   */
+  public PlanarityClassification(boolean parallel) {
+    this.parallel = parallel;
+  }
+
   public String classify(Graph graph) {
-    // Remove each possible pair of vertices and see if the remaining graph
-    // is planar, by determining if it does not have a K5 or K33 minor  
-    for (int from = 0; from < graph.getOrder(); from++) {
-      for (int to = from+1; to < graph.getOrder(); to++) {
-        int[] vertices = {from,to};
-        Graph subGraph = graph.removeVertices(vertices);
-        
-        if (!((subGraph.getOrder() >= 3) && 
-              (subGraph.getSize() > (3*subGraph.getOrder() - 6))) && 
-            !(subGraph.containsMinor(K5))                         && 
-            !(subGraph.containsMinor(K33))) {
-          return IS_NOT_IK;
-        }
+    // There has to be a pair of vertices to remove
+    if (graph.getOrder() < 2) {
+      return CANNOT_DETERMINE_IK;
+    }
+
+    PlanarityTester tester  = new PlanarityTester(graph.getOrder());
+    long[][]        rows    = graph.adjacencyRows();
+    long[]          removed = new long[(graph.getOrder() + 63) >>> 6];
+
+    // Any pair of vertices whose removal leaves a planar graph must hit
+    // every Kuratowski subgraph, so only the vertices of one of them are
+    // tried first, and then only the vertices of a Kuratowski subgraph of
+    // what remains.  Vertices are masked out rather than removed.
+    long[] witness = tester.kuratowskiVertices(rows, removed);
+    if (witness == null) {
+      return IS_NOT_IK;
+    }
+
+    if (parallel) {
+      AtomicBoolean  found = new AtomicBoolean(false);
+      List<PairTask> tasks = new ArrayList<PairTask>();
+
+      for (int first = nextVertex(witness, 0); first >= 0;
+           first = nextVertex(witness, first + 1)) {
+        tasks.add(new PairTask(rows, graph.getOrder(), first, found));
+      }
+
+      ForkJoinTask.invokeAll(tasks);
+
+      return found.get() ? IS_NOT_IK : CANNOT_DETERMINE_IK;
+    }
+
+    for (int first = nextVertex(witness, 0); first >= 0;
+         first = nextVertex(witness, first + 1)) {
+      if (completesPair(tester, rows, removed, first, null)) {
+        return IS_NOT_IK;
       }
     }
     
@@ -37,4 +108,51 @@ public class PlanarityClassification implements IKClassification {
     return "Any graph that has a planar subgraph after removing any 2 " +
            "vertices is NOT intrinsically knotted.";
   }
-}
\ No newline at end of file
+
+  /**
+   * Determines whether removing the first vertex and some second one
+   * leaves a planar graph.  The removed set is left as it was found.
+   *
+   * @param stop Set once a pair has been found elsewhere, so that the
+   *             search can give up, or null.
+   * @return A boolean value indicating whether such a pair was found.
+   */
+  private static boolean completesPair(PlanarityTester tester,
+                                       long[][] rows, long[] removed,
+                                       int first, AtomicBoolean stop) {
+    removed[first >>> 6] |= 1L << first;
+
+    // Without a Kuratowski subgraph left any second vertex will do
+    long[]  remaining = tester.kuratowskiVertices(rows, removed);
+    boolean found     = remaining == null;
+
+    for (int second = found ? -1 : nextVertex(remaining, 0);
+         !found && second >= 0 && (stop == null || !stop.get());
+         second = nextVertex(remaining, second + 1)) {
+      removed[second >>> 6] |= 1L << second;
+
+      found = tester.isPlanar(rows, removed);
+
+      removed[second >>> 6] &= ~(1L << second);
+    }
+
+    removed[first >>> 6] &= ~(1L << first);
+
+    return found;
+  }
+
+  /**
+   * Finds the first vertex in the set at or after the starting vertex.
+   *
+   * @return The vertex, or -1 if there is none.
+   */
+  private static int nextVertex(long[] set, int startVertex) {
+    for (int vertex = startVertex; (vertex >>> 6) < set.length; vertex++) {
+      if ((set[vertex >>> 6] & (1L << vertex)) != 0) {
+        return vertex;
+      }
+    }
+
+    return -1;
+  }
+}
@@ -0,0 +1,559 @@
+package ik;
+
+/**
+ * Tests graphs for planarity in linear time using the left-right planarity
+ * criterion of de Fraysseix and Rosenstiehl, following the formulation by
+ * Brandes.  A depth first search orients the graph and computes the
+ * lowpoints of every edge; a second depth first search then tries to assign
+ * every back edge to the left or right side of the tree, recording which
+ * edges must be on opposite sides (conflict pairs) on a stack.  The graph
+ * is planar exactly when no contradiction is found.
+ *
+ * A tester keeps its working arrays between calls so that it can be reused
+ * for many graphs of the same order without allocating.  Vertices can be
+ * left out of a test with a mask instead of building a smaller graph.
+ *
+ * For a graph that is not planar the tester can also find the vertices of
+ * a Kuratowski subgraph, a subdivision of K5 or K33, which any set of
+ * vertices whose removal makes the graph planar must hit.
+ */
+public class PlanarityTester {
+  private final int      order;
+  private final int      words;
+
+  // Per vertex state
+  private final int[]    height;
+  private final int[]    parentEdge;
+  private final int[]    outStart;
+  private final int[]    outNext;
+  private final long[][] oriented;
+  private final long[]   present;
+
+  // Per oriented edge state
+  private int[] source;
+  private int[] target;
+  private int[] lowpt;
+  private int[] lowpt2;
+  private int[] nestingDepth;
+  private int[] ref;
+  private int[] lowptEdge;
+  private int[] stackBottom;
+  private int[] outEdges;
+  private int   edgeCount;
+
+  // The stack of conflict pairs, each a left and a right interval of edges
+  private int[] leftLow;
+  private int[] leftHigh;
+  private int[] rightLow;
+  private int[] rightHigh;
+  private int   stackSize;
+
+  private long[][] rows;
+
+  /**
+   * Creates a tester for graphs of the given order.
+   *
+   * @param order The number of vertices of the graphs to be tested.
+   */
+  public PlanarityTester(int order) {
+    this.order      = order;
+    this.words      = (order + 63) >>> 6;
+    this.height     = new int[order];
+    this.parentEdge = new int[order];
+    this.outStart   = new int[order + 1];
+    this.outNext    = new int[order];
+    this.oriented   = new long[order][words];
+    this.present    = new long[words];
+    allocateEdges(Math.max(1, 3 * order));
+  }
+
+  /**
+   * Determines whether the graph is planar.
+   *
+   * @param graph The graph to test, which must have the tester's order.
+   * @return A boolean value indicating whether the graph is planar.
+   */
+  public boolean isPlanar(Graph graph) {
+    return isPlanar(graph.adjacencyRows(), null);
+  }
+
+  /**
+   * Determines whether the graph described by the adjacency rows, less the
+   * masked vertices, is planar.
+   *
+   * @param adjacency The packed adjacency rows, one per vertex.
+   * @param removed   A bitset of the vertices to leave out, or null.
+   * @return A boolean value indicating whether the graph is planar.
+   */
+  boolean isPlanar(long[][] adjacency, long[] removed) {
+    rows = adjacency;
+
+    // Count the vertices and edges that take part
+    int vertices = 0;
+    int edges    = 0;
+
+    for (int word = 0; word < words; word++) {
+      present[word] = (word == words - 1 && (order & 63) != 0)
+                      ? (1L << order) - 1 : -1L;
+      if (removed != null) {
+        present[word] &= ~removed[word];
+      }
+    }
+
+    for (int v = 0; v < order; v++) {
+      if (isPresent(v)) {
+        vertices++;
+
+        for (int word = 0; word < words; word++) {
+          edges += Long.bitCount(rows[v][word] & present[word]);
+        }
+      }
+    }
+
+    edges /= 2;
+
+    // Euler's formula rules out graphs that are too dense
+    if (vertices > 2 && edges > 3 * vertices - 6) {
+      return false;
+    }
+
+    if (source.length < edges) {
+      allocateEdges(edges);
+    }
+
+    // Orientation phase
+    edgeCount = 0;
+    for (int v = 0; v < order; v++) {
+      height[v]     = -1;
+      parentEdge[v] = -1;
+
+      for (int word = 0; word < words; word++) {
+        oriented[v][word] = 0;
+      }
+    }
+
+    for (int v = 0; v < order; v++) {
+      if (isPresent(v) && height[v] < 0) {
+        height[v] = 0;
+        orient(v);
+      }
+    }
+
+    sortOutEdges();
+
+    // Testing phase
+    stackSize = 0;
+    for (int e = 0; e < edgeCount; e++) {
+      ref[e] = -1;
+    }
+
+    for (int v = 0; v < order; v++) {
+      if (isPresent(v) && height[v] == 0 && !test(v)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Finds the vertices of a Kuratowski subgraph of the graph described by
+   * the adjacency rows, less the masked vertices.  Each vertex in turn is
+   * left out for good if the graph stays non-planar without it, so what is
+   * left is a non-planar graph which becomes planar on losing any one of
+   * its vertices: exactly the branch and subdivision vertices of a
+   * subdivided K5 or K33.
+   *
+   * @param adjacency The packed adjacency rows, one per vertex.
+   * @param removed   A bitset of the vertices to leave out, which is
+   *                  restored before returning.
+   * @return A bitset of the witness vertices, or null if the graph is
+   *         planar.
+   */
+  long[] kuratowskiVertices(long[][] adjacency, long[] removed) {
+    if (isPlanar(adjacency, removed)) {
+      return null;
+    }
+
+    long[] original = removed.clone();
+    long[] witness  = new long[words];
+
+    for (int v = 0; v < order; v++) {
+      int  word = v >>> 6;
+      long bit  = 1L << v;
+
+      if ((removed[word] & bit) != 0) {
+        continue;
+      }
+
+      removed[word] |= bit;
+
+      if (isPlanar(adjacency, removed)) {
+        // The vertex is needed to keep the graph non-planar
+        removed[word] &= ~bit;
+        witness[word] |= bit;
+      }
+    }
+
+    System.arraycopy(original, 0, removed, 0, words);
+
+    return witness;
+  }
+
+  /**
+   * Orients the edges away from the root of the depth first search and
+   * computes the lowpoints and nesting depth of each oriented edge.
+   */
+  private void orient(int v) {
+    int e = parentEdge[v];
+
+    for (int w = nextPresent(rows[v], 0); w >= 0;
+         w = nextPresent(rows[v], w + 1)) {
+      if ((oriented[v][w >>> 6] & (1L << w)) != 0) {
+        continue;
+      }
+
+      oriented[v][w >>> 6] |= 1L << w;
+      oriented[w][v >>> 6] |= 1L << v;
+
+      int vw = edgeCount++;
+      source[vw] = v;
+      target[vw] = w;
+      lowpt[vw]  = height[v];
+      lowpt2[vw] = height[v];
+
+      if (height[w] < 0) {
+        // A tree edge
+        parentEdge[w] = vw;
+        height[w]     = height[v] + 1;
+        orient(w);
+      } else {
+        // A back edge
+        lowpt[vw] = height[w];
+      }
+
+      // Determine the nesting order, chordal edges going after the others
+      nestingDepth[vw] = 2 * lowpt[vw];
+      if (lowpt2[vw] < height[v]) {
+        nestingDepth[vw]++;
+      }
+
+      // Update the lowpoints of the parent edge
+      if (e >= 0) {
+        if (lowpt[vw] < lowpt[e]) {
+          lowpt2[e] = Math.min(lowpt[e], lowpt2[vw]);
+          lowpt[e]  = lowpt[vw];
+        } else if (lowpt[vw] > lowpt[e]) {
+          lowpt2[e] = Math.min(lowpt2[e], lowpt[vw]);
+        } else {
+          lowpt2[e] = Math.min(lowpt2[e], lowpt2[vw]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Groups the oriented edges by their source vertex, each group sorted by
+   * nesting depth.
+   */
+  private void sortOutEdges() {
+    for (int v = 0; v <= order; v++) {
+      outStart[v] = 0;
+    }
+    for (int e = 0; e < edgeCount; e++) {
+      outStart[source[e] + 1]++;
+    }
+    for (int v = 0; v < order; v++) {
+      outStart[v + 1] += outStart[v];
+    }
+
+    for (int v = 0; v < order; v++) {
+      outNext[v] = outStart[v];
+    }
+    for (int e = 0; e < edgeCount; e++) {
+      outEdges[outNext[source[e]]++] = e;
+    }
+
+    for (int v = 0; v < order; v++) {
+      for (int i = outStart[v] + 1; i < outStart[v + 1]; i++) {
+        int edge = outEdges[i];
+        int j    = i - 1;
+
+        while (j >= outStart[v] &&
+               nestingDepth[outEdges[j]] > nestingDepth[edge]) {
+          outEdges[j + 1] = outEdges[j];
+          j--;
+        }
+        outEdges[j + 1] = edge;
+      }
+    }
+  }
+
+  /**
+   * Walks the oriented edges in nesting order, adding the constraints each
+   * one imposes on the sides of the back edges.
+   *
+   * @return A boolean value indicating that the constraints are consistent.
+   */
+  private boolean test(int v) {
+    int e = parentEdge[v];
+
+    for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+      int ei = outEdges[i];
+      int w  = target[ei];
+
+      stackBottom[ei] = stackSize;
+
+      if (ei == parentEdge[w]) {
+        if (!test(w)) {
+          return false;
+        }
+      } else {
+        lowptEdge[ei] = ei;
+        push(-1, -1, ei, ei);
+      }
+
+      // Integrate the new return edges
+      if (lowpt[ei] < height[v]) {
+        if (i == outStart[v]) {
+          lowptEdge[e] = lowptEdge[ei];
+        } else if (!addConstraints(ei, e)) {
+          return false;
+        }
+      }
+    }
+
+    // Remove the back edges returning to the parent
+    if (e >= 0) {
+      removeBackEdges(e);
+    }
+
+    return true;
+  }
+
+  /**
+   * Merges the return edges of ei into a new conflict pair, together with
+   * the return edges of its earlier siblings that conflict with them.
+   *
+   * @return A boolean value indicating that the constraints are consistent.
+   */
+  private boolean addConstraints(int ei, int e) {
+    int pLeftLow   = -1;
+    int pLeftHigh  = -1;
+    int pRightLow  = -1;
+    int pRightHigh = -1;
+
+    // Merge the return edges of ei into the right interval
+    do {
+      stackSize--;
+      int qLeftLow   = leftLow[stackSize];
+      int qLeftHigh  = leftHigh[stackSize];
+      int qRightLow  = rightLow[stackSize];
+      int qRightHigh = rightHigh[stackSize];
+
+      if (qLeftLow >= 0 || qLeftHigh >= 0) {
+        int low  = qLeftLow;
+        int high = qLeftHigh;
+        qLeftLow   = qRightLow;
+        qLeftHigh  = qRightHigh;
+        qRightLow  = low;
+        qRightHigh = high;
+      }
+
+      if (qLeftLow >= 0 || qLeftHigh >= 0) {
+        return false;
+      }
+
+      if (lowpt[qRightLow] > lowpt[e]) {
+        if (pRightLow < 0 && pRightHigh < 0) {
+          pRightHigh = qRightHigh;
+        } else {
+          ref[pRightLow] = qRightHigh;
+        }
+        pRightLow = qRightLow;
+      } else {
+        ref[qRightLow] = lowptEdge[e];
+      }
+    } while (stackSize != stackBottom[ei]);
+
+    // Merge the conflicting return edges of the earlier siblings into the
+    // left interval
+    while (stackSize > 0 &&
+           (conflicting(leftLow[stackSize - 1], leftHigh[stackSize - 1], ei) ||
+            conflicting(rightLow[stackSize - 1], rightHigh[stackSize - 1],
+                        ei))) {
+      stackSize--;
+      int qLeftLow   = leftLow[stackSize];
+      int qLeftHigh  = leftHigh[stackSize];
+      int qRightLow  = rightLow[stackSize];
+      int qRightHigh = rightHigh[stackSize];
+
+      if (conflicting(qRightLow, qRightHigh, ei)) {
+        int low  = qLeftLow;
+        int high = qLeftHigh;
+        qLeftLow   = qRightLow;
+        qLeftHigh  = qRightHigh;
+        qRightLow  = low;
+        qRightHigh = high;
+      }
+
+      if (conflicting(qRightLow, qRightHigh, ei)) {
+        return false;
+      }
+
+      if (pRightLow >= 0) {
+        ref[pRightLow] = qRightHigh;
+      }
+      if (qRightLow >= 0) {
+        pRightLow = qRightLow;
+      }
+
+      if (pLeftLow < 0 && pLeftHigh < 0) {
+        pLeftHigh = qLeftHigh;
+      } else {
+        ref[pLeftLow] = qLeftHigh;
+      }
+      pLeftLow = qLeftLow;
+    }
+
+    if (pLeftLow >= 0 || pLeftHigh >= 0 || pRightLow >= 0 || pRightHigh >= 0) {
+      push(pLeftLow, pLeftHigh, pRightLow, pRightHigh);
+    }
+
+    return true;
+  }
+
+  /**
+   * Trims the back edges that end at the source of the edge from the
+   * conflict pairs, and records the highest remaining return edge of the
+   * edge.
+   */
+  private void removeBackEdges(int e) {
+    int u = source[e];
+
+    // Drop entire conflict pairs
+    while (stackSize > 0 && lowest(stackSize - 1) == height[u]) {
+      stackSize--;
+    }
+
+    // One more conflict pair to consider
+    if (stackSize > 0) {
+      int top = stackSize - 1;
+
+      // Trim the left interval
+      while (leftHigh[top] >= 0 && target[leftHigh[top]] == u) {
+        leftHigh[top] = ref[leftHigh[top]];
+      }
+      if (leftHigh[top] < 0 && leftLow[top] >= 0) {
+        ref[leftLow[top]] = rightLow[top];
+        leftLow[top]      = -1;
+      }
+
+      // Trim the right interval
+      while (rightHigh[top] >= 0 && target[rightHigh[top]] == u) {
+        rightHigh[top] = ref[rightHigh[top]];
+      }
+      if (rightHigh[top] < 0 && rightLow[top] >= 0) {
+        ref[rightLow[top]] = leftLow[top];
+        rightLow[top]      = -1;
+      }
+    }
+
+    // The side of e is the side of a highest return edge
+    if (lowpt[e] < height[u] && stackSize > 0) {
+      int highLeft  = leftHigh[stackSize - 1];
+      int highRight = rightHigh[stackSize - 1];
+
+      if (highLeft >= 0 &&
+          (highRight < 0 || lowpt[highLeft] > lowpt[highRight])) {
+        ref[e] = highLeft;
+      } else {
+        ref[e] = highRight;
+      }
+    }
+  }
+
+  /**
+   * Determines whether an interval holds a return edge that is higher than
+   * the lowpoint of the edge.
+   */
+  private boolean conflicting(int low, int high, int edge) {
+    return (low >= 0 || high >= 0) && lowpt[high] > lowpt[edge];
+  }
+
+  /**
+   * The lowest lowpoint of the return edges in the conflict pair.
+   */
+  private int lowest(int pair) {
+    if (leftLow[pair] < 0 && leftHigh[pair] < 0) {
+      return lowpt[rightLow[pair]];
+    }
+    if (rightLow[pair] < 0 && rightHigh[pair] < 0) {
+      return lowpt[leftLow[pair]];
+    }
+
+    return Math.min(lowpt[leftLow[pair]], lowpt[rightLow[pair]]);
+  }
+
+  /**
+   * Pushes a conflict pair onto the stack.
+   */
+  private void push(int lLow, int lHigh, int rLow, int rHigh) {
+    leftLow[stackSize]   = lLow;
+    leftHigh[stackSize]  = lHigh;
+    rightLow[stackSize]  = rLow;
+    rightHigh[stackSize] = rHigh;
+    stackSize++;
+  }
+
+  /**
+   * Determines whether the vertex takes part in the current test.
+   */
+  private boolean isPresent(int v) {
+    return (present[v >>> 6] & (1L << v)) != 0;
+  }
+
+  /**
+   * Finds the first vertex taking part in the test in a row at or after the
+   * starting vertex.
+   *
+   * @return The vertex, or -1 if there is none.
+   */
+  private int nextPresent(long[] row, int startVertex) {
+    int word = startVertex >>> 6;
+
+    if (word >= words) {
+      return -1;
+    }
+
+    long bits = row[word] & present[word] & (-1L << startVertex);
+
+    while (bits == 0) {
+      if (++word == words) {
+        return -1;
+      }
+      bits = row[word] & present[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * Sizes the per edge arrays.
+   */
+  private void allocateEdges(int edges) {
+    source       = new int[edges];
+    target       = new int[edges];
+    lowpt        = new int[edges];
+    lowpt2       = new int[edges];
+    nestingDepth = new int[edges];
+    ref          = new int[edges];
+    lowptEdge    = new int[edges];
+    stackBottom  = new int[edges];
+    outEdges     = new int[edges];
+    leftLow      = new int[edges + 1];
+    leftHigh     = new int[edges + 1];
+    rightLow     = new int[edges + 1];
+    rightHigh    = new int[edges + 1];
+  }
+}
@@ -0,0 +1,313 @@
+package ik;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A durable record of the progress of a KnotFinder run, from which a run
+ * that died can be resumed without losing or repeating results.
+ *
+ * The journal is a text file with a line for every graph whose result has
+ * been written to the output:
+ *
+ * <pre>
+ *   graph start name
+ * </pre>
+ *
+ * where start is the position of the graph source before the graph was
+ * read.  The lines are written in batches, each closed by a commit line:
+ *
+ * <pre>
+ *   commit position count length
+ * </pre>
+ *
+ * Every graph before the position has its result written, count graphs
+ * came before it, and the output held length bytes.  The output is forced
+ * to disk before a batch is written, and the journal after, so a commit
+ * that made it to disk only ever points at output that did too.
+ *
+ * Results are not always written in input order, since graphs out of
+ * budget wait for later passes and a pipeline may write them as they
+ * complete, so graphs past the committed position may be done too.  A
+ * resumed run truncates the output and the journal to the last commit,
+ * reads the input again from its position and skips the graphs listed
+ * after it.
+ */
+public class ProgressJournal {
+  // A batch is committed after this many results or this long, whichever
+  // comes first
+  private static final int  COMMIT_RESULTS = 1000;
+  private static final long COMMIT_NANOS   = 10000000000L;
+
+  private final FileOutputStream    journal;
+  private final BufferedWriter      writer;
+  private       FileChannel         output;
+  private       Flushable           outputWriter;
+
+  // Where the last run left off, and the graphs past it that it wrote
+  private       long                resumePosition;
+  private       long                resumeCount;
+  private       long                resumeLength;
+  private       long[]              done;
+
+  // The graphs read and not yet written, by their start, with the number
+  // of graphs before each
+  private final Map<Graph, Long>    starts;
+  private final TreeMap<Long, Long> outstanding;
+  private       long                readPosition;
+  private       long                readCount;
+  private       int                 uncommitted;
+  private       long                lastCommit;
+
+  /**
+   * Opens a journal, either recovering where the run it records left off
+   * or starting it over.
+   *
+   * @param file The journal file.
+   * @param resume Whether to resume from the journal rather than start a
+   *               new one.
+   * @throws IOException if there is an IO error.
+   */
+  public ProgressJournal(File file, boolean resume) throws IOException {
+    this.resumePosition = 0;
+    this.resumeCount    = 0;
+    this.resumeLength   = -1;
+    this.done           = new long[0];
+    this.starts         = new IdentityHashMap<Graph, Long>();
+    this.outstanding    = new TreeMap<Long, Long>();
+    this.uncommitted    = 0;
+    this.lastCommit     = System.nanoTime();
+
+    long committed = 0;
+
+    if (resume && file.exists()) {
+      committed = recover(file);
+    }
+
+    // Anything after the last commit is not backed by the output
+    RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+    try {
+      truncate.setLength(committed);
+    } finally {
+      truncate.close();
+    }
+
+    this.journal      = new FileOutputStream(file, true);
+    this.writer       = new BufferedWriter(new OutputStreamWriter(journal,
+                                                                  "US-ASCII"));
+    this.readPosition = resumePosition;
+    this.readCount    = resumeCount;
+  }
+
+  /**
+   * Whether a run is being resumed.
+   *
+   * @return A boolean indicating whether the journal had a commit.
+   */
+  public boolean isResumed() {
+    return resumeLength >= 0;
+  }
+
+  /**
+   * The position of the graph source to resume reading from.
+   *
+   * @return A long position, as reported by GraphSource.getPosition.
+   */
+  public long getResumePosition() {
+    return resumePosition;
+  }
+
+  /**
+   * The number of graphs before the position to resume from.
+   *
+   * @return A long count.
+   */
+  public long getResumeCount() {
+    return resumeCount;
+  }
+
+  /**
+   * The length the output had at the last commit, which it is to be
+   * truncated to.
+   *
+   * @return A long length in bytes, or -1 if no run is being resumed.
+   */
+  public long getResumeLength() {
+    return resumeLength;
+  }
+
+  /**
+   * Sets the output whose results the journal records.  It is flushed and
+   * forced to disk before each commit.
+   *
+   * @param writer The Writer, or other Flushable, the results go through.
+   * @param channel The channel of the output file.
+   */
+  public synchronized void setOutput(Flushable   writer,
+                                     FileChannel channel) {
+    this.outputWriter = writer;
+    this.output       = channel;
+  }
+
+  /**
+   * Notes a graph read from the source, unless it was written by the run
+   * being resumed.  Graphs read again for a later pass are left as they
+   * are.
+   *
+   * @param graph The Graph read.
+   * @param start The position of the source before the graph.
+   * @param end The position of the source after the graph.
+   * @return A boolean indicating whether the graph is to be classified.
+   */
+  public synchronized boolean read(Graph graph, long start, long end) {
+    if (starts.containsKey(graph)) {
+      return true;
+    }
+
+    boolean skip = Arrays.binarySearch(done, start) >= 0;
+
+    if (!skip) {
+      starts.put(graph, Long.valueOf(start));
+      outstanding.put(Long.valueOf(start), Long.valueOf(readCount));
+    }
+
+    readPosition = end;
+    readCount++;
+
+    return !skip;
+  }
+
+  /**
+   * Notes that the result of a graph has been written to the output,
+   * committing the batch if it is full or old.
+   *
+   * @param graph The Graph whose result was written.
+   * @throws IOException if there is an IO error.
+   */
+  public synchronized void written(Graph graph) throws IOException {
+    Long start = starts.remove(graph);
+
+    if (start == null) {
+      return;
+    }
+
+    outstanding.remove(start);
+    writer.write("graph " + start + " " + graph.getName() + "\n");
+
+    if (++uncommitted >= COMMIT_RESULTS ||
+        System.nanoTime() - lastCommit >= COMMIT_NANOS) {
+      commit();
+    }
+  }
+
+  /**
+   * Makes the results written so far durable: forces the output to disk,
+   * then writes and forces the batch and its commit line.
+   *
+   * @throws IOException if there is an IO error.
+   */
+  public synchronized void commit() throws IOException {
+    outputWriter.flush();
+    output.force(false);
+
+    Map.Entry<Long, Long> first    = outstanding.firstEntry();
+    long                  position = first == null ? readPosition
+                                                   : first.getKey();
+    long                  count    = first == null ? readCount
+                                                   : first.getValue();
+
+    writer.write("commit " + position + " " + count + " " + output.size() +
+                 "\n");
+    writer.flush();
+    journal.getChannel().force(false);
+
+    uncommitted = 0;
+    lastCommit  = System.nanoTime();
+  }
+
+  /**
+   * Commits what is left and closes the journal.
+   *
+   * @throws IOException if there is an IO error.
+   */
+  public synchronized void close() throws IOException {
+    if (output != null) {
+      commit();
+    }
+
+    writer.close();
+  }
+
+  /**
+   * Reads the journal of an earlier run up to its last commit.  A line cut
+   * off by a crash has no line ending and is ignored, as is anything after
+   * the last commit.
+   *
+   * @return The length of the journal up to the end of the last commit.
+   */
+  private long recover(File file) throws IOException {
+    BufferedReader reader    = new BufferedReader(
+                                 new InputStreamReader(
+                                   new FileInputStream(file), "US-ASCII"));
+    long           length    = file.length();
+    long           offset    = 0;
+    long           committed = 0;
+    long[]         graphs    = new long[1024];
+    int            read      = 0;
+    int            backed    = 0;
+
+    try {
+      String line = reader.readLine();
+
+      while (line != null && offset + line.length() < length) {
+        String[] fields = line.split(" ");
+
+        offset += line.length() + 1;
+
+        if (fields[0].equals("graph")) {
+          if (read == graphs.length) {
+            graphs = Arrays.copyOf(graphs, 2 * read);
+          }
+          graphs[read++] = Long.parseLong(fields[1]);
+        } else if (fields[0].equals("commit")) {
+          resumePosition = Long.parseLong(fields[1]);
+          resumeCount    = Long.parseLong(fields[2]);
+          resumeLength   = Long.parseLong(fields[3]);
+          backed         = read;
+          committed      = offset;
+        }
+
+        line = reader.readLine();
+      }
+    } finally {
+      reader.close();
+    }
+
+    // Only the graphs past the position need to be skipped
+    int kept = 0;
+
+    for (int i = 0; i < backed; i++) {
+      if (graphs[i] >= resumePosition) {
+        graphs[kept++] = graphs[i];
+      }
+    }
+
+    done = Arrays.copyOf(graphs, kept);
+    Arrays.sort(done);
+
+    return committed;
+  }
+}
@@ -0,0 +1,543 @@
+package ik;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A persistent store of classification results, so that a graph which has
+ * been classified in an earlier run, under any labeling, costs a single
+ * lookup instead of a search.
+ *
+ * Results are appended to a log file, each record holding the canonical
+ * certificate of a graph, its result and the name of the test that
+ * determined it.  A hash index of the log lives in a second, memory mapped
+ * file (the log path plus ".index"), an open addressed table of slots each
+ * holding a 64 bit hash of a certificate and the offset of its record.
+ *
+ * Only one process may write to a store at a time; it holds a lock on the
+ * log for as long as the store is open.  Any number of other processes may
+ * open the same store for reading, which they do without write access to
+ * the files.  A record is written to the log before
+ * its slot is filled in, and a slot's hash before its offset, so readers
+ * never see a slot pointing at an incomplete record.  When the writer
+ * opens the store it indexes any records that were logged but not indexed
+ * before a crash, and discards a trailing partial record.
+ *
+ * Only definite results (ik or not_ik) are stored.  Indeterminate results
+ * depend on which tests were run and may change as tests are added, and
+ * exhausted budgets on the budget.
+ */
+public class ResultStore {
+  private static final long   MAGIC            = 0x494B5265734C6F67L;
+  private static final int    HEADER_SIZE      = 32;
+  private static final int    SLOT_SIZE        = 16;
+  private static final int    INITIAL_CAPACITY = 1 << 12;
+  private static final String INDEX_SUFFIX     = ".index";
+
+  // Header fields of the index file
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int COUNT_OFFSET    = 12;
+  private static final int COVERED_OFFSET  = 16;
+
+  // The logs this JVM holds the write lock on.  Another store in the JVM
+  // opens them for reading without trying the lock, since closing a file
+  // it had opened to try would release the lock of the writer.
+  private static final Set<File> WRITING = new HashSet<File>();
+
+  private final File                   logFile;
+  private final File                   indexFile;
+  private final FileChannel            logChannel;
+  private final FileLock               writeLock;
+  private final ReentrantReadWriteLock lock;
+  private       MappedByteBuffer       index;
+  private       int                    capacity;
+  private       int                    count;
+
+  /**
+   * A result found in the store.
+   */
+  public static final class Entry {
+    private final String result;
+    private final String testName;
+
+    Entry(String result, String testName) {
+      this.result   = result;
+      this.testName = testName;
+    }
+
+    /**
+     * The classification result, one of the IKClassification states.
+     *
+     * @return A String result.
+     */
+    public String getResult() {
+      return result;
+    }
+
+    /**
+     * The name of the test which determined the result.
+     *
+     * @return A String test name.
+     */
+    public String getTestName() {
+      return testName;
+    }
+  }
+
+  /**
+   * Opens a store, creating it if it does not exist.  The store is opened
+   * for writing unless another process already has it open for writing or
+   * the log cannot be written, in which case it is opened for reading
+   * only.
+   *
+   * @param path The path of the log file.
+   * @throws FileNotFoundException if the store would be opened for reading
+   *         and does not exist.
+   * @throws IOException if there is an IO error.
+   */
+  public ResultStore(String path) throws IOException {
+    this.logFile    = new File(path);
+    this.indexFile  = new File(path + INDEX_SUFFIX);
+    this.writeLock  = lockForWriting(logFile);
+    this.logChannel = isWriter() ? writeLock.channel()
+                                 : openForReading(logFile);
+    this.lock       = new ReentrantReadWriteLock();
+
+    if (isWriter()) {
+      recover();
+    } else {
+      mapIndex();
+    }
+  }
+
+  /**
+   * Whether this store may record results.
+   *
+   * @return A boolean indicating whether this process is the writer.
+   */
+  public boolean isWriter() {
+    return writeLock != null;
+  }
+
+  /**
+   * Looks up the result for a graph.
+   *
+   * @param certificate The canonical certificate of the graph.
+   * @return The Entry that was stored for the graph, or null if there is
+   *         none.
+   * @throws IOException if there is an IO error.
+   */
+  public Entry lookup(GraphCertificate certificate) throws IOException {
+    Entry entry = null;
+
+    lock.readLock().lock();
+    try {
+      entry = find(certificate);
+
+      // Another process may have grown the index since it was mapped
+      if (entry == null && !isWriter() && isStale()) {
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+        try {
+          mapIndex();
+        } finally {
+          lock.readLock().lock();
+          lock.writeLock().unlock();
+        }
+        entry = find(certificate);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    return entry;
+  }
+
+  /**
+   * Records the result for a graph.  Results other than ik and not_ik, and
+   * any result when this store is not the writer, are ignored.
+   *
+   * @param certificate The canonical certificate of the graph.
+   * @param result The classification result.
+   * @param testName The name of the test which determined the result.
+   * @throws IOException if there is an IO error.
+   */
+  public void store(GraphCertificate certificate,
+                    String           result,
+                    String           testName) throws IOException {
+    if (!isWriter() || !(result.equals(IKClassification.IS_IK) ||
+                         result.equals(IKClassification.IS_NOT_IK))) {
+      return;
+    }
+
+    ByteArrayOutputStream bytes  = new ByteArrayOutputStream(64);
+    DataOutputStream      record = new DataOutputStream(bytes);
+
+    record.writeInt(0);
+    certificate.writeTo(record);
+    record.writeUTF(result);
+    record.writeUTF(testName);
+    record.flush();
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    buffer.putInt(0, buffer.capacity() - 4);
+
+    lock.writeLock().lock();
+    try {
+      if (find(certificate) != null) {
+        return;
+      }
+
+      long offset = logChannel.size();
+      while (buffer.hasRemaining()) {
+        logChannel.write(buffer, offset + buffer.position());
+      }
+
+      insert(certificate.longHash(), offset);
+      index.putLong(COVERED_OFFSET, offset + buffer.capacity());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Closes the store, releasing the write lock if it is held.
+   *
+   * @throws IOException if there is an IO error.
+   */
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (index != null) {
+        index.force();
+      }
+      if (writeLock != null) {
+        writeLock.release();
+        forgetWriter(logFile);
+      }
+      logChannel.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Opens the log for writing and takes the write lock on it, unless the
+   * log cannot be written or another store, in this process or another,
+   * holds the lock.
+   *
+   * @return The FileLock, held on a channel open for writing, or null.
+   */
+  private static FileLock lockForWriting(File logFile) throws IOException {
+    File key = logFile.getCanonicalFile();
+
+    synchronized (WRITING) {
+      if (WRITING.contains(key) || (logFile.exists() && !logFile.canWrite())) {
+        return null;
+      }
+
+      FileChannel channel  = new RandomAccessFile(logFile, "rw").getChannel();
+      FileLock    acquired = null;
+
+      try {
+        acquired = channel.tryLock();
+      } finally {
+        if (acquired == null) {
+          channel.close();
+        }
+      }
+
+      if (acquired != null) {
+        WRITING.add(key);
+      }
+
+      return acquired;
+    }
+  }
+
+  /**
+   * Notes that this process no longer holds the write lock on the log.
+   */
+  private static void forgetWriter(File logFile) throws IOException {
+    synchronized (WRITING) {
+      WRITING.remove(logFile.getCanonicalFile());
+    }
+  }
+
+  /**
+   * Opens the log of an existing store for reading.
+   */
+  private static FileChannel openForReading(File logFile)
+                                            throws IOException {
+    if (!logFile.isFile()) {
+      throw new FileNotFoundException("No result store at " + logFile);
+    }
+
+    return new RandomAccessFile(logFile, "r").getChannel();
+  }
+
+  /**
+   * Searches the index for the certificate, confirming candidates against
+   * the records in the log.
+   */
+  private Entry find(GraphCertificate certificate) throws IOException {
+    if (index == null) {
+      return null;
+    }
+
+    long hash = certificate.longHash();
+    int  slot = slotFor(hash);
+
+    while (true) {
+      long offset = index.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+
+      if (offset == 0) {
+        return null;
+      }
+
+      if (index.getLong(HEADER_SIZE + slot * SLOT_SIZE) == hash) {
+        DataInputStream record = readRecord(offset - 1);
+
+        if (record != null &&
+            GraphCertificate.readFrom(record).equals(certificate)) {
+          return new Entry(record.readUTF(), record.readUTF());
+        }
+      }
+
+      slot = (slot + 1) & (capacity - 1);
+    }
+  }
+
+  /**
+   * Fills in a slot for a record, growing the index first if it is getting
+   * full.
+   */
+  private void insert(long hash, long offset) throws IOException {
+    if ((count + 1) * 2 > capacity) {
+      grow();
+    }
+
+    int slot = slotFor(hash);
+    while (index.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8) != 0) {
+      slot = (slot + 1) & (capacity - 1);
+    }
+
+    // The hash goes in before the offset which marks the slot as used
+    index.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+    index.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, offset + 1);
+    index.putInt(COUNT_OFFSET, ++count);
+  }
+
+  /**
+   * Replaces the index with one of twice the capacity.  The new index is
+   * written to a temporary file and renamed into place, so that readers
+   * keep a complete, if stale, index throughout.
+   */
+  private void grow() throws IOException {
+    File             grown    = new File(indexFile.getPath() + ".tmp");
+    int              newSize  = capacity * 2;
+    MappedByteBuffer newIndex = createIndex(grown, newSize);
+
+    for (int slot = 0; slot < capacity; slot++) {
+      long offset = index.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+
+      if (offset != 0) {
+        long hash    = index.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+        int  newSlot = (int)(mix(hash) & (newSize - 1));
+
+        while (newIndex.getLong(HEADER_SIZE + newSlot * SLOT_SIZE + 8) != 0) {
+          newSlot = (newSlot + 1) & (newSize - 1);
+        }
+
+        newIndex.putLong(HEADER_SIZE + newSlot * SLOT_SIZE, hash);
+        newIndex.putLong(HEADER_SIZE + newSlot * SLOT_SIZE + 8, offset);
+      }
+    }
+
+    newIndex.putInt(COUNT_OFFSET, count);
+    newIndex.putLong(COVERED_OFFSET, index.getLong(COVERED_OFFSET));
+    newIndex.force();
+
+    if (!grown.renameTo(indexFile)) {
+      throw new IOException("Unable to replace " + indexFile);
+    }
+
+    index    = newIndex;
+    capacity = newSize;
+  }
+
+  /**
+   * Opens the index as the writer, creating it if needed, and indexes any
+   * records logged after the index was last updated.
+   */
+  private void recover() throws IOException {
+    mapIndex();
+
+    if (index == null) {
+      index    = createIndex(indexFile, INITIAL_CAPACITY);
+      capacity = INITIAL_CAPACITY;
+      count    = 0;
+    }
+
+    long offset = index.getLong(COVERED_OFFSET);
+    long end    = logChannel.size();
+
+    while (offset < end) {
+      DataInputStream record = readRecord(offset);
+
+      if (record == null) {
+        // A record cut short by a crash
+        logChannel.truncate(offset);
+        break;
+      }
+
+      GraphCertificate certificate = GraphCertificate.readFrom(record);
+      if (find(certificate) == null) {
+        insert(certificate.longHash(), offset);
+      }
+
+      offset += 4 + readLength(offset);
+      index.putLong(COVERED_OFFSET, offset);
+    }
+  }
+
+  /**
+   * Maps the index file if it exists and is valid.
+   */
+  private void mapIndex() throws IOException {
+    index    = null;
+    capacity = 0;
+    count    = 0;
+
+    if (!indexFile.exists()) {
+      return;
+    }
+
+    RandomAccessFile file = new RandomAccessFile(indexFile,
+                                                 isWriter() ? "rw" : "r");
+    try {
+      if (file.length() < HEADER_SIZE) {
+        return;
+      }
+
+      MappedByteBuffer mapped = file.getChannel().map(
+        isWriter() ? FileChannel.MapMode.READ_WRITE
+                   : FileChannel.MapMode.READ_ONLY,
+        0, file.length());
+
+      int slots = mapped.getInt(CAPACITY_OFFSET);
+      if (mapped.getLong(0) != MAGIC || Integer.bitCount(slots) != 1 ||
+          file.length() != HEADER_SIZE + (long)slots * SLOT_SIZE) {
+        return;
+      }
+
+      index    = mapped;
+      capacity = slots;
+      count    = mapped.getInt(COUNT_OFFSET);
+    } finally {
+      // The mapping stays valid after the file is closed
+      file.close();
+    }
+  }
+
+  /**
+   * Creates an empty index file with the given number of slots.
+   */
+  private static MappedByteBuffer createIndex(File file, int slots)
+                                              throws IOException {
+    RandomAccessFile created = new RandomAccessFile(file, "rw");
+    try {
+      long size = HEADER_SIZE + (long)slots * SLOT_SIZE;
+
+      created.setLength(0);
+      created.setLength(size);
+
+      MappedByteBuffer mapped =
+        created.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      mapped.putLong(0, MAGIC);
+      mapped.putInt(CAPACITY_OFFSET, slots);
+
+      return mapped;
+    } finally {
+      created.close();
+    }
+  }
+
+  /**
+   * Determines whether the log has grown past what the mapped index covers.
+   */
+  private boolean isStale() throws IOException {
+    return index == null ||
+           logChannel.size() > index.getLong(COVERED_OFFSET);
+  }
+
+  /**
+   * Reads the record at the offset, positioned just after its length.
+   *
+   * @return A stream over the record, or null if the record is incomplete.
+   */
+  private DataInputStream readRecord(long offset) throws IOException {
+    int length = readLength(offset);
+
+    if (length < 0 || offset + 4 + length > logChannel.size()) {
+      return null;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (logChannel.read(buffer, offset + 4 + buffer.position()) < 0) {
+        return null;
+      }
+    }
+
+    return new DataInputStream(new ByteArrayInputStream(buffer.array()));
+  }
+
+  /**
+   * Reads the length of the record at the offset.
+   *
+   * @return The length, or -1 if it cannot be read.
+   */
+  private int readLength(long offset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(4);
+
+    while (buffer.hasRemaining()) {
+      if (logChannel.read(buffer, offset + buffer.position()) < 0) {
+        return -1;
+      }
+    }
+
+    return buffer.getInt(0);
+  }
+
+  /**
+   * The first slot to probe for the hash.
+   */
+  private int slotFor(long hash) {
+    return (int)(mix(hash) & (capacity - 1));
+  }
+
+  /**
+   * Spreads the bits of a hash before it is reduced to a slot.
+   */
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+
+    return hash;
+  }
+}
@@ -0,0 +1,475 @@
+package ik;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+/**
+ * Summarizes the results of a KnotFinder run, in the text format or the
+ * binary format of BinaryResultWriter, with the same report as
+ * tools/ik_summarizer: the states found, the tests that found them, the
+ * timings and the indeterminate graphs.  The results are read in a single
+ * pass, keeping only the times of the graphs, which the median needs.
+ *
+ * The times in the text format are whole milliseconds; the binary times
+ * are cut to milliseconds the same way, so both give the same report.
+ */
+public class ResultSummarizer {
+  private static final String RULE  =
+    "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~";
+  private static final int    WIDTH = RULE.length();
+
+  private static final SimpleDateFormat DATE_FORMAT =
+                         new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+  private String            command;
+  private long              startTime;
+  private int               startOffset;
+  private long              endTime;
+  private int               endOffset;
+  private long              graphCount;
+  private Map<String, Long> states;
+  private Map<String, Long> tests;
+  private List<String>      indeterminate;
+  private double[]          times;
+
+  /**
+   * Creates an empty ResultSummarizer.
+   */
+  public ResultSummarizer() {
+    this.graphCount    = 0;
+    this.states        = new LinkedHashMap<String, Long>();
+    this.tests         = new LinkedHashMap<String, Long>();
+    this.indeterminate = new ArrayList<String>();
+    this.times         = new double[1024];
+
+    states.put(IKClassification.IS_IK,               Long.valueOf(0));
+    states.put(IKClassification.IS_NOT_IK,           Long.valueOf(0));
+    states.put(IKClassification.CANNOT_DETERMINE_IK, Long.valueOf(0));
+  }
+
+  /**
+   * Summarizes the results file given by -f, to the file given by -o or
+   * stdout.
+   */
+  public static void main(String[] args) throws Exception {
+    String infile   = null;
+    String outfile  = null;
+    int    argIndex = 0;
+
+    while (argIndex + 1 < args.length) {
+      String option = args[argIndex++];
+
+      if (option.equals("-f")) {
+        infile = args[argIndex++];
+      } else if (option.equals("-o")) {
+        outfile = args[argIndex++];
+      } else {
+        argIndex = args.length;
+      }
+    }
+
+    if (infile == null || argIndex != args.length) {
+      System.out.println("usage: java ik.ResultSummarizer -f <results file> " +
+                         "[-o output file]");
+      System.exit(0);
+    }
+
+    ResultSummarizer summarizer = new ResultSummarizer();
+    InputStream      in         = new BufferedInputStream(
+                                    new FileInputStream(infile));
+
+    try {
+      summarizer.read(in);
+    } finally {
+      in.close();
+    }
+
+    PrintWriter out = new PrintWriter(
+                        new OutputStreamWriter(
+                          outfile == null ? System.out
+                                          : new FileOutputStream(outfile)));
+
+    summarizer.report(out);
+    out.close();
+  }
+
+  /**
+   * Reads a results file, telling the binary format from the text format
+   * by its first bytes.
+   *
+   * @param in The stream of the results, which must support mark.
+   * @throws IOException if there is an IO error or the results are cut
+   *         off.
+   */
+  public void read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+
+    in.mark(8);
+
+    boolean binary = false;
+
+    try {
+      binary = data.readLong() == BinaryResultWriter.MAGIC;
+    } catch (EOFException e) {
+      binary = false;
+    }
+
+    in.reset();
+
+    if (binary) {
+      readBinary(data);
+    } else {
+      readText(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+    }
+  }
+
+  /**
+   * Reads results in the binary format of BinaryResultWriter.
+   */
+  private void readBinary(DataInputStream in) throws IOException {
+    in.readLong();
+
+    int version = in.readInt();
+
+    if (version != BinaryResultWriter.VERSION) {
+      throw new IOException("Unknown results version " + version);
+    }
+
+    startTime   = in.readLong();
+    startOffset = in.readInt();
+    command     = in.readUTF();
+
+    String[] names = new String[in.readInt()];
+
+    for (int i = 0; i < names.length; i++) {
+      names[i] = in.readUTF();
+    }
+
+    try {
+      byte state = in.readByte();
+
+      while (state != BinaryResultWriter.END) {
+        int  test  = in.readByte();
+        long id    = in.readLong();
+        long nanos = in.readLong();
+
+        in.readLong();
+
+        add(Long.toString(id), BinaryResultWriter.STATES[state],
+            test < 0 ? null : names[test], (nanos / 1000000) / 1000.0);
+
+        state = in.readByte();
+      }
+
+      endTime = in.readLong();
+    } catch (EOFException e) {
+      throw new IOException("The results end before the run completed");
+    }
+
+    // The end time is in the time zone of the start
+    endOffset = startOffset;
+  }
+
+  /**
+   * Reads results in the text format written by KnotFinder.
+   */
+  private void readText(BufferedReader in) throws IOException {
+    String start = readLine(in);
+
+    startTime   = parseDate(start);
+    startOffset = parseOffset(start);
+    command     = readLine(in).trim();
+
+    // The blank line after the command
+    readLine(in);
+
+    String line = readLine(in).trim();
+
+    while (line.length() != 0) {
+      String[] parts = line.split(", ", -1);
+
+      add(parts[0], parts[1], parts[2].length() == 0 ? null : parts[2],
+          Double.parseDouble(parts[3]));
+
+      line = readLine(in).trim();
+    }
+
+    String end = readLine(in);
+
+    endTime   = parseDate(end);
+    endOffset = parseOffset(end);
+  }
+
+  /**
+   * Counts the result of one graph.
+   */
+  private void add(String id, String state, String test, double seconds) {
+    Long count = states.get(state);
+
+    states.put(state, Long.valueOf(count == null ? 1 : count + 1));
+
+    if (state.equals(IKClassification.CANNOT_DETERMINE_IK)) {
+      indeterminate.add(id);
+    } else if (test != null) {
+      Long tested = tests.get(test);
+
+      tests.put(test, Long.valueOf(tested == null ? 1 : tested + 1));
+    }
+
+    if (graphCount == times.length) {
+      times = Arrays.copyOf(times, 2 * times.length);
+    }
+    times[(int)graphCount++] = seconds;
+  }
+
+  /**
+   * Writes the report.
+   *
+   * @param out Where the report is written.
+   */
+  public void report(PrintWriter out) {
+    double[] sorted = Arrays.copyOf(times, (int)graphCount);
+    double   total  = 0;
+
+    Arrays.sort(sorted);
+
+    // Summed smallest first, as the Ruby summarizer does
+    for (int i = 0; i < sorted.length; i++) {
+      total += sorted[i];
+    }
+
+    StringBuilder report = new StringBuilder();
+
+    line(report, "");
+    line(report, RULE);
+    line(report, banner(command));
+    line(report, RULE);
+    line(report, "Classification Run At:       " +
+                 formatDate(startTime, startOffset));
+    line(report, "Classification Completed At: " +
+                 formatDate(endTime, endOffset));
+    line(report, "");
+    line(report, RULE);
+    line(report, rule("~~~~~ CLASSIFICATION SUMMARY "));
+    line(report, RULE);
+    line(report, "Graphs Processed");
+    line(report, "  Total: " + graphCount);
+    line(report, "  ");
+    line(report, "States");
+    line(report, "  Not Intrinsically Knotted: " +
+                 share(IKClassification.IS_NOT_IK));
+    line(report, "  Intrinsically Knotted:     " +
+                 share(IKClassification.IS_IK));
+    line(report, "  Indeterminate:             " +
+                 share(IKClassification.CANNOT_DETERMINE_IK));
+    line(report, "");
+    line(report, "Classification Tests");
+
+    for (Map.Entry<String, Long> test : tests.entrySet()) {
+      line(report, "  " + test(test.getKey() + ":", test.getValue()));
+    }
+
+    line(report, "  " + test("Unclassified:",
+                             states.get(IKClassification.CANNOT_DETERMINE_IK)));
+    line(report, "");
+    line(report, RULE);
+    line(report, rule("~~~~~ TIMING SUMMARY "));
+    line(report, RULE);
+    line(report, "Elapsed Time ");
+    line(report, "  Total:   " +
+                 formatElapsedTime((endTime - startTime) / 1000.0));
+    line(report, "");
+    line(report, "Graph Classifying Time");
+    line(report, "  Total:   " + formatElapsedTime(total));
+    line(report, "  Mean:    " + formatElapsedTime(total / graphCount));
+    line(report, "  Median:  " +
+                 formatElapsedTime(sorted[(int)(graphCount / 2)]));
+    line(report, "  Minimum: " + formatElapsedTime(sorted[0]));
+    line(report, "  Maximum: " + formatElapsedTime(sorted[sorted.length - 1]));
+    line(report, "");
+    line(report, "");
+    line(report, RULE);
+    line(report, rule("~~~~~ INDETERMINATE GRAPHS "));
+    line(report, RULE);
+    line(report, "Graph Ids");
+
+    for (String id : indeterminate) {
+      line(report, "  " + id);
+    }
+
+    line(report, "");
+
+    out.print(report);
+    out.flush();
+  }
+
+  /**
+   * Formats a number of seconds as days, hours, minutes, seconds and
+   * milliseconds, leaving off the leading units that are 0.
+   *
+   * @param seconds The number of seconds.
+   * @return The String time, such as 1m0s250ms.
+   */
+  public static String formatElapsedTime(double seconds) {
+    long milliseconds = Math.round(seconds * 1000);
+    long days         = milliseconds / (1000L * 60 * 60 * 24);
+    milliseconds     %= 1000L * 60 * 60 * 24;
+    long hours        = milliseconds / (1000 * 60 * 60);
+    milliseconds     %= 1000 * 60 * 60;
+    long minutes      = milliseconds / (1000 * 60);
+    milliseconds     %= 1000 * 60;
+    long secs         = milliseconds / 1000;
+    milliseconds     %= 1000;
+
+    String output = "";
+
+    if (days != 0) {
+      output += days + "d";
+    }
+    if (hours != 0 || output.length() != 0) {
+      output += hours + "h";
+    }
+    if (minutes != 0 || output.length() != 0) {
+      output += minutes + "m";
+    }
+    if (secs != 0 || output.length() != 0) {
+      output += secs + "s";
+    }
+
+    return output + milliseconds + "ms";
+  }
+
+  /**
+   * The count of a state and its share of the graphs.
+   */
+  private String share(String state) {
+    long count = states.get(state);
+
+    return String.format("%-7d (%s%%)", count, percent(count));
+  }
+
+  /**
+   * The count of a test and its share of the graphs.
+   */
+  private String test(String name, long count) {
+    return String.format("%-35s %-7s (%s%%)", name, count, percent(count));
+  }
+
+  /**
+   * A percentage of the graphs to two places, rounded from the exact value
+   * of the double as C and Ruby round it.
+   */
+  private String percent(long count) {
+    double value = count * 100.0 / graphCount;
+
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return Double.isNaN(value) ? "NaN" : "Inf";
+    }
+
+    return new BigDecimal(value).setScale(2, RoundingMode.HALF_EVEN)
+                                .toPlainString();
+  }
+
+  /**
+   * The command centred in a line of tildes.
+   */
+  private static String banner(String command) {
+    int size = command.length();
+
+    if (size >= WIDTH) {
+      return command;
+    } else if (size >= WIDTH - 2) {
+      return " " + command;
+    }
+
+    int leading  = (WIDTH - 2 - size) / 2;
+    int trailing = leading;
+
+    if (size % 2 == 1) {
+      leading++;
+    }
+
+    return RULE.substring(0, leading) + " " + command + " " +
+           RULE.substring(0, trailing);
+  }
+
+  /**
+   * A title filled out to a full line of tildes.
+   */
+  private static String rule(String title) {
+    return title + RULE.substring(title.length());
+  }
+
+  private static void line(StringBuilder report, String line) {
+    report.append(line).append('\n');
+  }
+
+  /**
+   * Reads a line that must be there.
+   */
+  private static String readLine(BufferedReader in) throws IOException {
+    String line = in.readLine();
+
+    if (line == null) {
+      throw new IOException("The results end before the run completed");
+    }
+
+    return line;
+  }
+
+  private static long parseDate(String date) throws IOException {
+    try {
+      synchronized (DATE_FORMAT) {
+        return DATE_FORMAT.parse(date.trim()).getTime();
+      }
+    } catch (ParseException e) {
+      throw new IOException("Bad date " + date.trim());
+    }
+  }
+
+  /**
+   * The time zone offset at the end of a date, such as +0100, in seconds.
+   */
+  private static int parseOffset(String date) {
+    String zone    = date.trim();
+    String offset  = zone.substring(zone.length() - 5);
+    int    sign    = offset.charAt(0) == '-' ? -1 : 1;
+    int    hours   = Integer.parseInt(offset.substring(1, 3));
+    int    minutes = Integer.parseInt(offset.substring(3, 5));
+
+    return sign * (hours * 3600 + minutes * 60);
+  }
+
+  /**
+   * Formats a time in a time zone offset the way Ruby prints a Time.
+   */
+  private static String formatDate(long time, int offset) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+    TimeZone         zone   = new SimpleTimeZone(offset * 1000, "");
+
+    format.setTimeZone(zone);
+
+    return format.format(new Date(time));
+  }
+}
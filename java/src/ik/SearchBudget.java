@@ -0,0 +1,184 @@
+package ik;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on how much work a search may do: a number of search nodes, a
+ * deadline, or both.  The minor and subgraph searches charge the budget
+ * of the calling thread for every node they visit, and give up with a
+ * BudgetExhaustedException once it has run out or has been cancelled from
+ * another thread.
+ *
+ * The budget of a thread is set with setCurrent around the work it
+ * limits.  A thread without a budget searches without limit, and pays
+ * only a null test per node.  A search split across threads gives each
+ * part a budget forked from its own, which stops along with it and counts
+ * its nodes toward it.
+ */
+public class SearchBudget {
+  // The deadline is only looked at, and the nodes of a forked budget only
+  // counted toward its parent, every so many nodes
+  private static final int DEADLINE_INTERVAL = 256;
+
+  private static final ThreadLocal<SearchBudget> CURRENT =
+    new ThreadLocal<SearchBudget>();
+
+  private final long         nodeLimit;
+  private final long         nanoLimit;
+  private final long         deadline;
+  private final SearchBudget parent;
+  private final AtomicLong   forkedNodes;
+  private       long         nodes;
+  private volatile boolean   cancelled;
+
+  /**
+   * Creates a new SearchBudget, starting now.
+   *
+   * @param nodeLimit The number of search nodes allowed, 0 for no limit.
+   * @param nanos The number of nanoseconds allowed, 0 for no limit.
+   */
+  public SearchBudget(long nodeLimit, long nanos) {
+    this.nodeLimit   = nodeLimit > 0 ? nodeLimit : Long.MAX_VALUE;
+    this.nanoLimit   = nanos > 0 ? nanos : Long.MAX_VALUE;
+    this.deadline    = nanos > 0 ? System.nanoTime() + nanos : 0;
+    this.parent      = null;
+    this.forkedNodes = new AtomicLong();
+    this.nodes       = 0;
+    this.cancelled   = false;
+  }
+
+  /**
+   * Creates a budget for part of the search charging the parent.
+   */
+  private SearchBudget(SearchBudget parent) {
+    this.nodeLimit   = parent.nodeLimit;
+    this.nanoLimit   = parent.nanoLimit;
+    this.deadline    = parent.deadline;
+    this.parent      = parent;
+    this.forkedNodes = new AtomicLong();
+    this.nodes       = 0;
+    this.cancelled   = false;
+  }
+
+  /**
+   * Creates a budget for part of a search that is split across threads,
+   * to be charged by the thread searching that part.  It has the same
+   * deadline, stops when this budget is cancelled or runs out, and its
+   * nodes count toward this budget.
+   *
+   * @return The forked SearchBudget.
+   */
+  public SearchBudget fork() {
+    return new SearchBudget(this);
+  }
+
+  /**
+   * The budget the searches on this thread charge.
+   *
+   * @return The SearchBudget, or null if searches are not limited.
+   */
+  public static SearchBudget current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Sets the budget the searches on this thread charge.
+   *
+   * @param budget The SearchBudget, or null to search without limit.
+   */
+  public static void setCurrent(SearchBudget budget) {
+    if (budget == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(budget);
+    }
+  }
+
+  /**
+   * Charges the budget for one search node.  A budget is charged only by
+   * the thread searching with it.
+   *
+   * @throws BudgetExhaustedException if the budget has run out or has been
+   *         cancelled.
+   */
+  public void charge() throws BudgetExhaustedException {
+    nodes++;
+
+    if (parent != null && nodes % DEADLINE_INTERVAL == 0) {
+      parent.share(DEADLINE_INTERVAL);
+    }
+
+    if (isCancelled()) {
+      throw new BudgetExhaustedException("Search cancelled");
+    }
+    if (getNodes() > nodeLimit) {
+      throw new BudgetExhaustedException("Search exceeded " + nodeLimit +
+                                         " nodes");
+    }
+    if (deadline != 0 && nodes % DEADLINE_INTERVAL == 0 &&
+        System.nanoTime() - deadline > 0) {
+      throw new BudgetExhaustedException("Search exceeded its deadline");
+    }
+  }
+
+  /**
+   * Cancels the searches charging this budget and the budgets forked from
+   * it.  They stop at their next node.  This may be called from any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Determines whether this budget or one it was forked from has been
+   * cancelled.
+   *
+   * @return A boolean value indicating whether searches should stop.
+   */
+  public boolean isCancelled() {
+    for (SearchBudget budget = this; budget != null;
+         budget = budget.parent) {
+      if (budget.cancelled) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Determines whether this budget allows no more nodes and no more time
+   * than another, so that a search which ran out of the other is not worth
+   * starting again with this one.
+   *
+   * @param other The SearchBudget to compare with.
+   * @return A boolean value indicating whether this budget is no larger.
+   */
+  public boolean isWithin(SearchBudget other) {
+    return nodeLimit <= other.nodeLimit && nanoLimit <= other.nanoLimit;
+  }
+
+  /**
+   * The number of nodes charged so far, including those counted toward it
+   * by the budgets forked from it.
+   *
+   * @return A long count.
+   */
+  public long getNodes() {
+    return nodes + forkedNodes.get();
+  }
+
+  /**
+   * Counts nodes charged to a forked budget, cancelling this budget once
+   * it has run out.
+   */
+  private void share(long count) {
+    if (forkedNodes.addAndGet(count) + nodes > nodeLimit) {
+      cancel();
+    }
+
+    if (parent != null) {
+      parent.share(count);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package ik;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * Reads graphs in the text format written by nauty's "showg -eF -l0",
+ * which is the format of the graph files made by tools/graph_generator.
+ * Each graph is a block of lines:
+ *
+ * <pre>
+ *   Graph 3, order 8.
+ *   8 10
+ *   0 3  0 4  ...
+ * </pre>
+ *
+ * with the edges possibly running over several lines, and the blocks
+ * separated by blank lines.  The lines are split here rather than by a
+ * BufferedReader so that the characters read can be counted; showg writes
+ * only ASCII, so that count is the byte offset in the file.
+ */
+public class ShowgReader implements GraphSource {
+  private static final Pattern DIGIT_REGEX = Pattern.compile("\\d+");
+  private static final int     BUFFER_SIZE = 1 << 16;
+
+  private final Reader reader;
+  private final char[] buffer;
+  private       int    start;
+  private       int    limit;
+  private       long   position;
+
+  /**
+   * Creates a new ShowgReader.
+   *
+   * @param reader The Reader the graphs are read from.
+   */
+  public ShowgReader(Reader reader) {
+    this(reader, 0);
+  }
+
+  /**
+   * Creates a new ShowgReader over a reader that has already been moved
+   * into the input, such as to resume a run.
+   *
+   * @param reader The Reader the graphs are read from.
+   * @param position The offset of the reader in the input.
+   */
+  public ShowgReader(Reader reader, long position) {
+    this.reader   = reader;
+    this.buffer   = new char[BUFFER_SIZE];
+    this.start    = 0;
+    this.limit    = 0;
+    this.position = position;
+  }
+
+  /**
+   * Reads the next graph.
+   *
+   * @return The new Graph that is read, null if the end has been reached.
+   * @throws IOException if there is an IO issue.
+   * @throws IllegalArgumentException if there is a problem with the
+   *         graph data.
+   */
+  public Graph next() throws IOException,
+                             IllegalArgumentException {
+    Graph graph = null;
+
+    // Remove any blank lines
+    String nextLine = readLine();
+
+    while (nextLine != null && nextLine.trim().length() == 0) {
+      nextLine = readLine();
+    }
+
+    // Parse the next graph
+    if (nextLine != null) {
+      String titleLine = nextLine;
+      String descLine  = readLine();
+      String edges     = readLine();
+
+      // Are there multiple lines of edges?
+      nextLine = readLine();
+      while (nextLine != null && nextLine.trim().length() != 0) {
+        edges   += " "+nextLine;
+        nextLine = readLine();
+      }
+
+      // The title line looks like "Graph 3, order 8." so pull
+      // out the numbers
+      Matcher match = DIGIT_REGEX.matcher(titleLine);
+      match.find();
+      String name  = match.group();
+      match.find();
+      int order = Integer.parseInt(match.group());
+
+      graph = new Graph(name, order);
+      addAllEdges(graph, edges);
+    }
+
+    return graph;
+  }
+
+  /**
+   * The offset just past the last line read for the last graph, which
+   * takes in the blank line after it.
+   *
+   * @return A long position.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Closes the underlying reader.
+   *
+   * @throws IOException if there is an IO issue.
+   */
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /**
+   * Reads the next line, without its line ending, and counts it and the
+   * line ending toward the position.
+   *
+   * @return The String line, or null if the end has been reached.
+   * @throws IOException if there is an IO issue.
+   */
+  private String readLine() throws IOException {
+    StringBuilder line = null;
+
+    while (true) {
+      for (int end = start; end < limit; end++) {
+        if (buffer[end] == '\n') {
+          String text = take(line, end);
+
+          start = end + 1;
+          position++;
+
+          return text.endsWith("\r") ? text.substring(0, text.length() - 1)
+                                     : text;
+        }
+      }
+
+      // The line runs past the buffer, so keep what there is of it
+      if (start < limit) {
+        if (line == null) {
+          line = new StringBuilder();
+        }
+        line.append(buffer, start, limit - start);
+        position += limit - start;
+      }
+
+      start = 0;
+      limit = reader.read(buffer, 0, buffer.length);
+
+      if (limit < 0) {
+        limit = 0;
+        return line == null ? null : line.toString();
+      }
+    }
+  }
+
+  /**
+   * Ends a line at the given index of the buffer, counting what is taken
+   * from the buffer toward the position.
+   */
+  private String take(StringBuilder line, int end) {
+    position += end - start;
+
+    if (line == null) {
+      return new String(buffer, start, end - start);
+    }
+
+    return line.append(buffer, start, end - start).toString();
+  }
+
+  /**
+   * Adds all of the edges to the graph object from the 'edges' String
+   * which was read from a file.
+   *
+   * @param graph The current graph we are working with.
+   * @param edges The String line from the file which represents the edges.
+   */
+  private static void addAllEdges(Graph graph, String edges) {
+    StringTokenizer stEdges = new StringTokenizer(edges);
+
+    while (stEdges.hasMoreElements()) {
+      int fromVert = Integer.parseInt(stEdges.nextToken());
+      int toVert   = Integer.parseInt(stEdges.nextToken());
+      graph.addEdge(fromVert, toVert);
+    }
+  }
+}
@@ -0,0 +1,393 @@
+package ik;
+
+/**
+ * Searches for an embedding of a pattern graph into a host graph, that is
+ * a one to one mapping of the pattern's vertices onto the host's vertices
+ * which carries every edge of the pattern onto an edge of the host.
+ *
+ * Each pattern vertex keeps a bitset domain of the host vertices it may
+ * still be mapped to.  The domains start out filtered by degree and by the
+ * degrees of the neighbors, the pattern vertices are assigned in an order
+ * which keeps the assigned part connected, and after every assignment the
+ * domains of the unassigned vertices are narrowed (forward checking) and
+ * kept all-different, so that dead ends are found before they are entered.
+ *
+ * A pattern with symmetry constraints from GraphConstants only has the
+ * embeddings which keep them tried, one from each class of embeddings that
+ * differ by an automorphism of the pattern.  The constraints narrow the
+ * domains along with the edges: once u is mapped to v, a vertex that must
+ * map above u is left only host vertices above v, and one that must map
+ * below u only those below v.
+ */
+public class SubgraphMatcher {
+  private final long[][]     hostRows;
+  private final int          hostOrder;
+  private final long[][]     patternRows;
+  private final int          patternOrder;
+  private final int          words;
+  private final int[]        order;
+  private final long[][][]   domains;
+  private final long[]       greater;
+  private final long[]       lesser;
+  private final SearchBudget budget;
+  private       long         backtracks;
+
+  /**
+   * Creates a matcher for the pattern within the host.
+   *
+   * @param host    The graph searched.
+   * @param pattern The graph searched for.
+   */
+  public SubgraphMatcher(Graph host, Graph pattern) {
+    this.hostRows     = host.adjacencyRows();
+    this.hostOrder    = host.getOrder();
+    this.patternRows  = pattern.adjacencyRows();
+    this.patternOrder = pattern.getOrder();
+    this.words        = (hostOrder + 63) >>> 6;
+    this.order        = new int[patternOrder];
+    this.domains      = new long[patternOrder + 1][patternOrder][words];
+    this.greater      = GraphConstants.symmetryConstraints(pattern);
+    this.lesser       = greater == null ? null : new long[patternOrder];
+    this.budget       = SearchBudget.current();
+
+    for (int u = 0; lesser != null && u < patternOrder; u++) {
+      for (int w = 0; w < patternOrder; w++) {
+        if ((greater[u] & (1L << w)) != 0) {
+          lesser[w] |= 1L << u;
+        }
+      }
+    }
+  }
+
+  /**
+   * Determines whether the host contains the pattern as a subgraph.
+   *
+   * @return A boolean value indicating whether an embedding exists.
+   * @throws BudgetExhaustedException if the SearchBudget of this thread
+   *         runs out.
+   */
+  public boolean matches() {
+    if (patternOrder == 0) {
+      return true;
+    }
+    if (patternOrder > hostOrder) {
+      return false;
+    }
+
+    if (!initializeDomains()) {
+      return false;
+    }
+
+    orderVertices();
+
+    boolean matches = search(0);
+    Metrics.countSubgraphSearch(backtracks);
+
+    return matches;
+  }
+
+  /**
+   * Fills the starting domains.  A host vertex is a candidate for a pattern
+   * vertex only if its degree is at least as large, and if the degrees of
+   * its neighbors, largest first, are each at least as large as those of
+   * the pattern vertex's neighbors.
+   *
+   * @return A boolean indicating that no domain is empty.
+   */
+  private boolean initializeDomains() {
+    int[][] hostDegrees    = neighborDegrees(hostRows, hostOrder);
+    int[][] patternDegrees = neighborDegrees(patternRows, patternOrder);
+
+    for (int u = 0; u < patternOrder; u++) {
+      int[]   pattern = patternDegrees[u];
+      boolean empty   = true;
+
+      for (int v = 0; v < hostOrder; v++) {
+        int[]   host       = hostDegrees[v];
+        boolean compatible = host.length >= pattern.length;
+
+        for (int k = 0; k < pattern.length && compatible; k++) {
+          compatible = host[k] >= pattern[k];
+        }
+
+        if (compatible) {
+          domains[0][u][v >>> 6] |= 1L << v;
+          empty = false;
+        }
+      }
+
+      if (empty) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Chooses the order in which pattern vertices are assigned.  The vertex
+   * of greatest degree comes first, then repeatedly the vertex with the
+   * most neighbors already ordered, breaking ties by degree and then by the
+   * smaller domain.
+   */
+  private void orderVertices() {
+    boolean[] ordered = new boolean[patternOrder];
+    int[]     links   = new int[patternOrder];
+
+    for (int position = 0; position < patternOrder; position++) {
+      int best = -1;
+
+      for (int u = 0; u < patternOrder; u++) {
+        if (ordered[u]) {
+          continue;
+        }
+
+        if (best < 0 || links[u] > links[best] ||
+            (links[u] == links[best] &&
+             (degree(patternRows[u]) > degree(patternRows[best]) ||
+              (degree(patternRows[u]) == degree(patternRows[best]) &&
+               degree(domains[0][u]) < degree(domains[0][best]))))) {
+          best = u;
+        }
+      }
+
+      order[position] = best;
+      ordered[best]   = true;
+
+      long[] row = patternRows[best];
+      for (int u = nextBit(row, 0); u >= 0; u = nextBit(row, u + 1)) {
+        links[u]++;
+      }
+    }
+  }
+
+  /**
+   * Tries each candidate for the pattern vertex at the given depth.
+   *
+   * @param depth The number of pattern vertices already assigned.
+   * @return A boolean value indicating if the assignment so far can be
+   *         completed to an embedding.
+   */
+  private boolean search(int depth) {
+    int    u      = order[depth];
+    long[] domain = domains[depth][u];
+
+    if (budget != null) {
+      budget.charge();
+    }
+
+    for (int v = nextBit(domain, 0); v >= 0; v = nextBit(domain, v + 1)) {
+      if (depth + 1 == patternOrder) {
+        return true;
+      }
+
+      if (propagate(depth, u, v) && search(depth + 1)) {
+        return true;
+      }
+      backtracks++;
+    }
+
+    return false;
+  }
+
+  /**
+   * Assigns the host vertex to the pattern vertex and narrows the domains
+   * of the unassigned vertices into the next level: the host vertex is
+   * taken out of every domain, the neighbors of the pattern vertex must
+   * be mapped to neighbors of the host vertex, and the symmetry
+   * constraints on the pattern vertex must be kept.  Any domain left with a
+   * single host vertex then claims it from all the others.
+   *
+   * @return A boolean value indicating that every domain is still feasible.
+   */
+  private boolean propagate(int depth, int u, int v) {
+    long[][] current = domains[depth];
+    long[][] next    = domains[depth + 1];
+    long[]   uRow    = patternRows[u];
+    long[]   vRow    = hostRows[v];
+    int      vWord   = v >>> 6;
+    long     vBit    = 1L << v;
+
+    for (int position = depth + 1; position < patternOrder; position++) {
+      int     w        = order[position];
+      long[]  from     = current[w];
+      long[]  to       = next[w];
+      boolean adjacent = (uRow[w >>> 6] & (1L << w)) != 0;
+      boolean above    = greater != null && (greater[u] & (1L << w)) != 0;
+      boolean below    = lesser  != null && (lesser[u]  & (1L << w)) != 0;
+      long    any      = 0;
+
+      for (int word = 0; word < words; word++) {
+        long bits = from[word];
+
+        if (adjacent) {
+          bits &= vRow[word];
+        }
+        if (word == vWord) {
+          bits &= ~vBit;
+        }
+        if (above) {
+          bits &= word < vWord ? 0 : word > vWord ? -1L : -2L << v;
+        }
+        if (below) {
+          bits &= word > vWord ? 0 : word < vWord ? -1L : vBit - 1;
+        }
+
+        to[word] = bits;
+        any     |= bits;
+      }
+
+      if (any == 0) {
+        return false;
+      }
+    }
+
+    return allDifferent(next, depth + 1);
+  }
+
+  /**
+   * Keeps the domains of the unassigned vertices all-different.  A domain
+   * holding a single host vertex removes it from the others, repeated until
+   * nothing changes, and the unassigned vertices together must still have
+   * at least as many host vertices available as there are of them.
+   *
+   * @return A boolean value indicating that the domains are still feasible.
+   */
+  private boolean allDifferent(long[][] level, int first) {
+    boolean changed = true;
+
+    while (changed) {
+      changed = false;
+
+      for (int position = first; position < patternOrder; position++) {
+        long[] domain = level[order[position]];
+        int    single = singleton(domain);
+
+        if (single < 0) {
+          continue;
+        }
+
+        int  word = single >>> 6;
+        long bit  = 1L << single;
+
+        for (int other = first; other < patternOrder; other++) {
+          long[] otherDomain = level[order[other]];
+
+          if (other != position && (otherDomain[word] & bit) != 0) {
+            otherDomain[word] &= ~bit;
+
+            int remaining = degree(otherDomain);
+            if (remaining == 0) {
+              return false;
+            }
+
+            changed |= remaining == 1;
+          }
+        }
+      }
+    }
+
+    int available = 0;
+    for (int word = 0; word < words; word++) {
+      long union = 0;
+
+      for (int position = first; position < patternOrder; position++) {
+        union |= level[order[position]][word];
+      }
+
+      available += Long.bitCount(union);
+    }
+
+    return available >= patternOrder - first;
+  }
+
+  /**
+   * Computes, for each vertex, the degrees of its neighbors sorted largest
+   * first.  The length of the array is the degree of the vertex.
+   */
+  private static int[][] neighborDegrees(long[][] rows, int order) {
+    int[]   degree  = new int[order];
+    int[][] degrees = new int[order][];
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      degree[vertex] = degree(rows[vertex]);
+    }
+
+    for (int vertex = 0; vertex < order; vertex++) {
+      long[] row       = rows[vertex];
+      int[]  neighbors = new int[degree[vertex]];
+      int    count     = 0;
+
+      for (int to = nextBit(row, 0); to >= 0; to = nextBit(row, to + 1)) {
+        // Insert keeping the array sorted largest first
+        int i = count++;
+        while (i > 0 && neighbors[i - 1] < degree[to]) {
+          neighbors[i] = neighbors[i - 1];
+          i--;
+        }
+        neighbors[i] = degree[to];
+      }
+
+      degrees[vertex] = neighbors;
+    }
+
+    return degrees;
+  }
+
+  /**
+   * The single vertex in the set, or -1 if it does not hold exactly one.
+   */
+  private static int singleton(long[] set) {
+    int vertex = -1;
+
+    for (int word = 0; word < set.length; word++) {
+      long bits = set[word];
+
+      if (bits != 0) {
+        if (vertex >= 0 || (bits & (bits - 1)) != 0) {
+          return -1;
+        }
+        vertex = (word << 6) + Long.numberOfTrailingZeros(bits);
+      }
+    }
+
+    return vertex;
+  }
+
+  /**
+   * The number of vertices in the set.
+   */
+  private static int degree(long[] set) {
+    int count = 0;
+
+    for (int word = 0; word < set.length; word++) {
+      count += Long.bitCount(set[word]);
+    }
+
+    return count;
+  }
+
+  /**
+   * Finds the first vertex in the set at or after the starting vertex.
+   *
+   * @return The vertex, or -1 if there is none.
+   */
+  private static int nextBit(long[] set, int startVertex) {
+    int word = startVertex >>> 6;
+
+    if (word >= set.length) {
+      return -1;
+    }
+
+    long bits = set[word] & (-1L << startVertex);
+
+    while (bits == 0) {
+      if (++word == set.length) {
+        return -1;
+      }
+      bits = set[word];
+    }
+
+    return (word << 6) + Long.numberOfTrailingZeros(bits);
+  }
+}